@@ -45,6 +45,9 @@ public class UserConverter {
     if (json.getValue("username") instanceof String) {
       obj.setUsername((String)json.getValue("username"));
     }
+    if (json.getValue("version") instanceof Number) {
+      obj.setVersion(((Number)json.getValue("version")).longValue());
+    }
   }
 
   public static void toJson(User obj, JsonObject json) {
@@ -66,5 +69,8 @@ public class UserConverter {
     if (obj.getUsername() != null) {
       json.put("username", obj.getUsername());
     }
+    if (obj.getVersion() != null) {
+      json.put("version", obj.getVersion());
+    }
   }
 }
\ No newline at end of file
@@ -52,6 +52,13 @@ public class BaseVerticle extends AbstractVerticle {
     );
   }
 
+  /**
+   * @return the circuit breaker built from the {@code circuit-breaker} configuration
+   */
+  protected CircuitBreaker circuitBreaker() {
+    return circuitBreaker;
+  }
+
   protected Future<Void> publishHttpEndpoint(String name, String host, int port) {
     Record record = HttpEndpoint.createRecord(name, host, port, "/",
       new JsonObject().put("api.name", config().getString("api.name", ""))
@@ -64,6 +71,21 @@ public class BaseVerticle extends AbstractVerticle {
     return publish(record);
   }
 
+  /**
+   * Publish an event bus address served with a protocol of its own, which generic service proxies can't call.
+   *
+   * @param type   type of the record, one no service discovery type handles
+   * @param client class of the client the callers have to use
+   */
+  protected Future<Void> publishEventBusEndpoint(String name, String type, String address, Class<?> client) {
+    Record record = new Record()
+      .setName(name)
+      .setType(type)
+      .setLocation(new JsonObject().put(Record.ENDPOINT, address))
+      .setMetadata(new JsonObject().put("client", client.getName()));
+    return publish(record);
+  }
+
   /**
    * Publish a service with record.
    *
@@ -123,6 +145,7 @@ public class BaseVerticle extends AbstractVerticle {
   protected void addCorsHandler(Router router) {
     router.route().handler(CorsHandler.create("*")
       .allowedHeaders(allowedHeaders())
+      .exposedHeaders(exposedHeaders())
       .allowedMethods(allowedMethods()));
   }
 
@@ -133,9 +156,17 @@ public class BaseVerticle extends AbstractVerticle {
     allowHeaders.add("origin");
     allowHeaders.add("Content-Type");
     allowHeaders.add("accept");
+    allowHeaders.add("Authorization");
+    allowHeaders.add("If-None-Match");
     return allowHeaders;
   }
 
+  private Set<String> exposedHeaders() {
+    Set<String> exposeHeaders = new HashSet<>();
+    exposeHeaders.add("ETag");
+    return exposeHeaders;
+  }
+
   private Set<HttpMethod> allowedMethods() {
     Set<HttpMethod> allowMethods = new HashSet<>();
     allowMethods.add(HttpMethod.GET);
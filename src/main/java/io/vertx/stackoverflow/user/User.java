@@ -15,6 +15,7 @@ public class User {
   private String email;
   private String firstName;
   private String lastName;
+  private Long version;
 
   public User() {
     // Empty constructor
@@ -78,6 +79,17 @@ public class User {
     this.firstName = firstName;
   }
 
+  /**
+   * @return the version of the user the update was prepared from, {@code null} to update whatever the version
+   */
+  public Long getVersion() {
+    return version;
+  }
+
+  public void setVersion(Long version) {
+    this.version = version;
+  }
+
   @Override
   public String toString() {
     return toJson().encodePrettily();
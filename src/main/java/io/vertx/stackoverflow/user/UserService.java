@@ -1,7 +1,10 @@
 package io.vertx.stackoverflow.user;
 
+import java.util.List;
+
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 /**
@@ -13,6 +16,47 @@ public interface UserService {
   void deleteUser(String username, Handler<AsyncResult<Void>> resultHandler);
   void retrieveUser(String username, Handler<AsyncResult<JsonObject>> resultHandler);
   void loginUser(String username, String password, Handler<AsyncResult<JsonObject>> resultHandler);
-  void logoutUser(Handler<AsyncResult<Void>> resultHandler);
+  void logoutUser(String token, Handler<AsyncResult<Void>> resultHandler);
+
+  /**
+   * Replace the fields of a user, the ones the user leaves {@code null} are removed. A password must be given.
+   * <p>
+   * When the user carries a version, the update only applies to that version of the user and fails with a 409
+   * {@link UserServiceException} otherwise. An unknown user fails with a 404.
+   */
   void updateUser(String username, User user, Handler<AsyncResult<Void>> resultHandler);
+
+  /**
+   * Like {@link #updateUser}, only changing the fields the user doesn't leave {@code null}.
+   */
+  void patchUser(String username, User changes, Handler<AsyncResult<Void>> resultHandler);
+
+  /**
+   * Add a batch of users, a duplicate username only fails its own record.
+   *
+   * @param resultHandler one result per user, in order, with the username, an http like status and an error if any
+   */
+  void addUsers(List<User> users, Handler<AsyncResult<JsonArray>> resultHandler);
+
+  /**
+   * List users in username order, without their password.
+   *
+   * @param after only users whose username comes after this one are listed, {@code null} to start from the first user
+   * @param limit maximum number of users listed
+   */
+  void listUsers(String after, int limit, Handler<AsyncResult<JsonArray>> resultHandler);
+
+  /**
+   * Retrieve several users with a single query.
+   *
+   * @param resultHandler the users found, in no particular order, unknown usernames are left out
+   */
+  void retrieveUsers(List<String> usernames, Handler<AsyncResult<JsonArray>> resultHandler);
+
+  /**
+   * Check a token issued by {@link #loginUser} that hasn't been revoked by {@link #logoutUser}.
+   *
+   * @param resultHandler the claims of the token, fails with a 401 {@link UserServiceException} if the token is invalid
+   */
+  void authenticate(String token, Handler<AsyncResult<JsonObject>> resultHandler);
 }
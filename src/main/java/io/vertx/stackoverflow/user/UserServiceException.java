@@ -0,0 +1,27 @@
+package io.vertx.stackoverflow.user;
+
+/**
+ * Failure of a {@link UserService} operation that is the caller's doing rather than an internal error.
+ * <p>
+ * The failure code is the HTTP status the REST API answers with.
+ */
+public class UserServiceException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final int UNAUTHORIZED = 401;
+  public static final int NOT_FOUND = 404;
+  public static final int CONFLICT = 409;
+  public static final int SERVICE_UNAVAILABLE = 503;
+
+  private final int failureCode;
+
+  public UserServiceException(int failureCode, String message) {
+    super(message);
+    this.failureCode = failureCode;
+  }
+
+  public int failureCode() {
+    return failureCode;
+  }
+}
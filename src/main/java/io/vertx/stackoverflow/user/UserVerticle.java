@@ -1,9 +1,28 @@
 package io.vertx.stackoverflow.user;
 
+import java.util.List;
+
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
-import io.vertx.stackoverflow.user.api.UserAPIVerticle;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.stackoverflow.user.api.ConcurrencyLimiter;
+import io.vertx.stackoverflow.user.api.LoginRateLimiter;
+import io.vertx.stackoverflow.user.api.UserAPIVerticleFactory;
+import io.vertx.stackoverflow.user.eventbus.UserServiceMessageHandler;
+import io.vertx.stackoverflow.user.eventbus.UserServiceProxy;
+import io.vertx.stackoverflow.user.events.UserEventPublisher;
+import io.vertx.stackoverflow.user.health.UserHealthChecks;
+import io.vertx.stackoverflow.user.impl.BatchingUserService;
+import io.vertx.stackoverflow.user.impl.BloomFilteringUserService;
+import io.vertx.stackoverflow.user.impl.CachingUserService;
+import io.vertx.stackoverflow.user.impl.ClusterCacheInvalidator;
+import io.vertx.stackoverflow.user.impl.EventPublishingUserService;
+import io.vertx.stackoverflow.user.impl.SuggestIndexingUserService;
+import io.vertx.stackoverflow.user.impl.TokenRevocationStore;
 import io.vertx.stackoverflow.user.impl.UserServiceImpl;
+import io.vertx.stackoverflow.user.impl.UserSuggestIndex;
+import io.vertx.stackoverflow.user.metrics.MetricsRegistry;
 
 /**
  * Main verticle for publishing the user micro service
@@ -13,31 +32,185 @@ import io.vertx.stackoverflow.user.impl.UserServiceImpl;
 public class UserVerticle extends BaseVerticle {
 
   private UserService service;
+  private UserAPIVerticleFactory apiVerticleFactory;
+  private UserHealthChecks healthChecks;
+  private List<MessageConsumer<Object>> eventBusConsumers;
+  private UserEventPublisher eventPublisher;
+  private UserSuggestIndex suggestIndex;
+  private final MetricsRegistry metrics = new MetricsRegistry();
 
   @Override
   public void start(Future<Void> future) throws Exception {
     super.start();
 
     //create the service instance
-    service = new UserServiceImpl(vertx, config());
+    UserServiceImpl serviceImpl = new UserServiceImpl(vertx, config(), metrics, circuitBreaker());
+    service = serviceImpl;
+
+    // tokens logged out on a node must be rejected by the other nodes too
+    JsonObject jwtOptions = config().getJsonObject("jwt") != null ? config().getJsonObject("jwt") : new JsonObject();
+    if (jwtOptions.getBoolean("cluster-sync", vertx.isClustered())) {
+      TokenRevocationStore revocationStore = serviceImpl.revocationStore();
+      ClusterCacheInvalidator sync = new ClusterCacheInvalidator(vertx, TokenRevocationStore.ADDRESS, jwtOptions,
+        revocationStore::revoked);
+      sync.start();
+      revocationStore.setClusterSync(sync);
+    }
+
+    // health and readiness of the node, Mongo being pinged in the background
+    JsonObject healthOptions = config().getJsonObject("health") != null ?
+      config().getJsonObject("health") : new JsonObject();
+    healthChecks = new UserHealthChecks(vertx, healthOptions, serviceImpl::ping, serviceImpl::hashingQueueDepth);
+    healthChecks.addCircuitBreaker(circuitBreaker());
+    healthChecks.start();
+
+    // autocompletion of usernames and names, kept up to date by the writes
+    JsonObject suggestOptions = config().getJsonObject("user-suggest") != null ?
+      config().getJsonObject("user-suggest") : new JsonObject();
+    if (suggestOptions.getBoolean("enabled", true)) {
+      suggestIndex = new UserSuggestIndex(suggestOptions);
+      suggestIndex.registerMetrics(metrics);
+      SuggestIndexingUserService indexingService =
+        new SuggestIndexingUserService(vertx, service, suggestIndex, suggestOptions);
+      if (suggestOptions.getBoolean("cluster-sync", vertx.isClustered())) {
+        ClusterCacheInvalidator sync = new ClusterCacheInvalidator(vertx, SuggestIndexingUserService.ADDRESS,
+          suggestOptions, indexingService::refresh);
+        sync.start();
+        indexingService.setClusterSync(sync);
+      }
+      // a secondary lagging behind would miss the latest users
+      indexingService.setSource(serviceImpl.primaryReads());
+      indexingService.load();
+      // drop the deleted users, and pick up the writes of other nodes whose broadcast was lost
+      long rebuildInterval = suggestOptions.getLong("rebuild-interval", 300000L);
+      if (rebuildInterval > 0) {
+        vertx.setPeriodic(rebuildInterval, id -> indexingService.load());
+      }
+      service = indexingService;
+    }
+
+    // answer lookups of usernames that don't exist without querying Mongo, off by default when clustered as the
+    // usernames added on the other nodes only reach the filter through a best effort broadcast
+    JsonObject bloomOptions = config().getJsonObject("username-filter") != null ?
+      config().getJsonObject("username-filter") : new JsonObject();
+    if (bloomOptions.getBoolean("enabled", !vertx.isClustered())) {
+      BloomFilteringUserService bloomService = new BloomFilteringUserService(vertx, service, bloomOptions);
+      bloomService.registerMetrics(metrics);
+      // usernames added on the other nodes must reach this filter, or their users would read as missing here
+      if (bloomOptions.getBoolean("cluster-sync", vertx.isClustered())) {
+        ClusterCacheInvalidator sync = new ClusterCacheInvalidator(vertx, BloomFilteringUserService.ADDRESS,
+          bloomOptions, bloomService::add);
+        sync.start();
+        bloomService.setClusterSync(sync);
+      }
+      bloomService.setSource(serviceImpl.primaryReads());
+      bloomService.load();
+      // drop the deleted usernames, and pick up users inserted without going through the service
+      long rebuildInterval = bloomOptions.getLong("rebuild-interval", 300000L);
+      if (rebuildInterval > 0) {
+        vertx.setPeriodic(rebuildInterval, id -> bloomService.load());
+      }
+      service = bloomService;
+    }
+
+    // user change events, published to RabbitMQ in the background
+    JsonObject eventOptions = config().getJsonObject("user-events") != null ?
+      config().getJsonObject("user-events") : new JsonObject();
+    if (eventOptions.getBoolean("enabled", false)) {
+      eventPublisher = new UserEventPublisher(vertx, eventOptions, metrics);
+      service = new EventPublishingUserService(service, eventPublisher);
+    }
+
+    // coalesce concurrent lookups into multi-get queries
+    JsonObject batchingOptions = config().getJsonObject("user-batching") != null ?
+      config().getJsonObject("user-batching") : new JsonObject();
+    if (batchingOptions.getBoolean("enabled", true)) {
+      service = new BatchingUserService(vertx, service, batchingOptions);
+    }
 
-    //ProxyHelper.registerService(StoreCRUDService.class, vertx, crudService, SERVICE_ADDRESS);
+    // read-through cache of user documents
+    JsonObject cacheOptions = config().getJsonObject("user-cache") != null ?
+      config().getJsonObject("user-cache") : new JsonObject();
+    if (cacheOptions.getBoolean("enabled", true)) {
+      CachingUserService cachingService = new CachingUserService(service, cacheOptions);
+      cachingService.registerMetrics(metrics);
+      vertx.setPeriodic(cacheOptions.getLong("purge-interval", 30000L), id -> cachingService.purgeExpired());
+      // keep the caches of the other nodes coherent when running clustered
+      if (cacheOptions.getBoolean("cluster-invalidation", vertx.isClustered())) {
+        ClusterCacheInvalidator invalidator = new ClusterCacheInvalidator(vertx, cacheOptions, cachingService::invalidate);
+        invalidator.start();
+        cachingService.setClusterInvalidator(invalidator);
+      }
+      service = cachingService;
+    }
 
-    // publish service and deploy REST verticle
-    // TODO no need to publish event bus service, remove this
-    //publishEventBusService("user-service", "service.user", UserService.class)
-    //  .compose(servicePublished -> deployRestVerticle(service))
-    //  .setHandler(future.completer());
+    // serve the service on the event bus, so other verticles don't have to go through the REST API
+    String address = config().getString("user.service.address", "service.user");
+    eventBusConsumers = UserServiceMessageHandler.register(vertx, service, address);
 
-    // TODO : just deploy the Rest verticle here , which will create service discovery and publish http end point
-    deployRestVerticle(service);
+    // publish service and deploy REST verticle, the service is called through UserServiceProxy rather than a
+    // generated proxy, so the record isn't an eventbus-service-proxy one
+    publishEventBusEndpoint("user-service", "user-service-eventbus", address, UserServiceProxy.class)
+      .compose(servicePublished -> deployRestVerticle(service))
+      .setHandler(future.completer());
 
   }
 
+  @Override
+  public void stop(Future<Void> future) throws Exception {
+    if (healthChecks != null) {
+      healthChecks.stop();
+    }
+    if (eventBusConsumers != null) {
+      eventBusConsumers.forEach(MessageConsumer::unregister);
+    }
+    if (eventPublisher != null) {
+      eventPublisher.close();
+    }
+    if (apiVerticleFactory != null) {
+      vertx.unregisterVerticleFactory(apiVerticleFactory);
+    }
+    super.stop(future);
+  }
+
   private Future<Void> deployRestVerticle(UserService service) {
+    // one REST verticle instance per event loop by default, all sharing the same service and http port
+    int instances = config().getInteger("user.service.http.instances",
+      Runtime.getRuntime().availableProcessors());
+
+    // login rate limiting, shared by all the instances
+    JsonObject rateLimitOptions = config().getJsonObject("login-rate-limit") != null ?
+      config().getJsonObject("login-rate-limit") : new JsonObject();
+    LoginRateLimiter loginRateLimiter = null;
+    if (rateLimitOptions.getBoolean("enabled", true)) {
+      LoginRateLimiter limiter = new LoginRateLimiter(rateLimitOptions);
+      metrics.gauge("user_login_rate_limit_keys", "", "Tracked login rate limit buckets", limiter::size);
+      vertx.setPeriodic(rateLimitOptions.getLong("eviction-interval", 60000L), id -> limiter.evictIdle());
+      loginRateLimiter = limiter;
+    }
+
+    // adaptive limit of the requests in flight, shared by all the instances
+    JsonObject concurrencyOptions = config().getJsonObject("concurrency-limit") != null ?
+      config().getJsonObject("concurrency-limit") : new JsonObject();
+    ConcurrencyLimiter concurrencyLimiter = null;
+    if (concurrencyOptions.getBoolean("enabled", true)) {
+      ConcurrencyLimiter limiter = new ConcurrencyLimiter(concurrencyOptions);
+      metrics.gauge("user_concurrency_limit", "", "Adaptive limit of the requests in flight", limiter::limit);
+      metrics.gauge("user_concurrency_in_flight", "", "Requests in flight under the limit", limiter::inFlight);
+      for (ConcurrencyLimiter.Priority priority : ConcurrencyLimiter.Priority.values()) {
+        metrics.counter("user_concurrency_rejected_total", "priority=\"" + priority.name().toLowerCase() + "\"",
+          "Requests rejected over the concurrency limit", () -> limiter.rejected(priority));
+      }
+      concurrencyLimiter = limiter;
+    }
+
+    apiVerticleFactory = new UserAPIVerticleFactory(service, loginRateLimiter, metrics, healthChecks,
+      concurrencyLimiter, suggestIndex);
+    vertx.registerVerticleFactory(apiVerticleFactory);
+
     Future<String> future = Future.future();
-    vertx.deployVerticle(new UserAPIVerticle(service),
-      new DeploymentOptions().setConfig(config()),
+    vertx.deployVerticle(UserAPIVerticleFactory.verticleName(),
+      new DeploymentOptions().setConfig(config()).setInstances(instances),
       future.completer());
     return future.map(r -> null);
   }
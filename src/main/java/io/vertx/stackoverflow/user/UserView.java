@@ -0,0 +1,123 @@
+package io.vertx.stackoverflow.user;
+
+import io.vertx.codegen.annotations.DataObject;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Public view of a {@link User}, as returned to clients. It never carries the password.
+ * <p>
+ * {@link #FIELDS} is the matching Mongo projection, so lookups only fetch what is returned.
+ */
+@DataObject
+public class UserView {
+
+  /**
+   * Projection of a user document on the fields of the view.
+   */
+  public static final JsonObject FIELDS = new JsonObject()
+    .put("_id", 0)
+    .put("username", 1)
+    .put("email", 1)
+    .put("firstName", 1)
+    .put("lastName", 1)
+    .put("phone", 1)
+    .put("version", 1);
+
+  private String username;
+  private String email;
+  private String firstName;
+  private String lastName;
+  private String phone;
+  private Long version;
+
+  public UserView() {
+    // Empty constructor
+  }
+
+  /**
+   * Create the view of a user document, fields outside of the view are ignored.
+   */
+  public UserView(JsonObject json) {
+    this.username = json.getString("username");
+    this.email = json.getString("email");
+    this.firstName = json.getString("firstName");
+    this.lastName = json.getString("lastName");
+    this.phone = json.getString("phone");
+    this.version = json.getLong("version");
+  }
+
+  public JsonObject toJson() {
+    JsonObject json = new JsonObject();
+    putIfNotNull(json, "username", username);
+    putIfNotNull(json, "email", email);
+    putIfNotNull(json, "firstName", firstName);
+    putIfNotNull(json, "lastName", lastName);
+    putIfNotNull(json, "phone", phone);
+    if (version != null) {
+      json.put("version", version);
+    }
+    return json;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public void setUsername(String username) {
+    this.username = username;
+  }
+
+  public String getEmail() {
+    return email;
+  }
+
+  public void setEmail(String email) {
+    this.email = email;
+  }
+
+  public String getFirstName() {
+    return firstName;
+  }
+
+  public void setFirstName(String firstName) {
+    this.firstName = firstName;
+  }
+
+  public String getLastName() {
+    return lastName;
+  }
+
+  public void setLastName(String lastName) {
+    this.lastName = lastName;
+  }
+
+  public String getPhone() {
+    return phone;
+  }
+
+  public void setPhone(String phone) {
+    this.phone = phone;
+  }
+
+  /**
+   * @return the number of updates of the user, {@code null} if it was never updated
+   */
+  public Long getVersion() {
+    return version;
+  }
+
+  public void setVersion(Long version) {
+    this.version = version;
+  }
+
+  @Override
+  public String toString() {
+    return toJson().encode();
+  }
+
+  private static void putIfNotNull(JsonObject json, String name, String value) {
+    if (value != null) {
+      json.put(name, value);
+    }
+  }
+}
@@ -0,0 +1,213 @@
+package io.vertx.stackoverflow.user.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.stackoverflow.user.User;
+import io.vertx.stackoverflow.user.UserService;
+
+/**
+ * Imports the users of one {@code POST /user/_bulk} request.
+ * <p>
+ * The body is newline delimited JSON, one user per line. It is parsed as it arrives and users are written in
+ * batches of {@code batchSize}; the request is paused while {@code maxInFlight} batches are being written or while
+ * the response can't keep up, so memory stays bounded whatever the size of the import. Lines longer than
+ * {@code maxLineLength} bytes are skipped without being buffered.
+ * <p>
+ * The response is newline delimited JSON too, with one result per line of the request: the line number, the username,
+ * an http like status and an error if any.
+ */
+class BulkImportHandler {
+
+  private static final byte NEW_LINE = '\n';
+
+  private final UserService userService;
+  private final HttpServerRequest request;
+  private final HttpServerResponse response;
+  private final int batchSize;
+  private final int maxInFlight;
+  private final int maxLineLength;
+
+  // start of the line whose end hasn't arrived yet
+  private Buffer pending = Buffer.buffer();
+  // whether the pending line is too long, its bytes are then dropped until its end
+  private boolean discarding;
+  private List<User> batch;
+  private List<Integer> batchLines;
+  private int lineNumber;
+  private int inFlight;
+  private boolean paused;
+  private boolean ended;
+
+  BulkImportHandler(UserService userService, HttpServerRequest request, int batchSize, int maxInFlight,
+                    int maxLineLength) {
+    this.userService = userService;
+    this.request = request;
+    this.response = request.response();
+    this.batchSize = batchSize;
+    this.maxInFlight = maxInFlight;
+    this.maxLineLength = maxLineLength;
+    newBatch();
+  }
+
+  void start() {
+    response.setChunked(true).putHeader("content-type", "application/x-ndjson");
+    request.handler(this::handleData);
+    request.endHandler(v -> {
+      ended = true;
+      if (pending.length() > 0 || discarding) {
+        endPendingLine();
+      }
+      flushBatch();
+      endIfDone();
+    });
+    request.exceptionHandler(t -> response.close());
+  }
+
+  private void handleData(Buffer data) {
+    // only the new bytes are scanned, the start of their first line is already pending
+    int start = 0;
+    for (int i = 0; i < data.length(); i++) {
+      if (data.getByte(i) == NEW_LINE) {
+        if (pending.length() == 0 && !discarding) {
+          handleLine(data.slice(start, i));
+        } else {
+          append(data, start, i);
+          endPendingLine();
+        }
+        start = i + 1;
+      }
+    }
+    append(data, start, data.length());
+  }
+
+  private void append(Buffer data, int from, int to) {
+    if (discarding || from == to) {
+      return;
+    }
+    if (pending.length() + to - from > maxLineLength) {
+      discarding = true;
+      pending = Buffer.buffer();
+      return;
+    }
+    pending.appendBuffer(data, from, to - from);
+  }
+
+  private void endPendingLine() {
+    if (discarding) {
+      discarding = false;
+      lineNumber++;
+      writeLineTooLong();
+    } else {
+      handleLine(pending);
+    }
+    pending = Buffer.buffer();
+  }
+
+  private void handleLine(Buffer line) {
+    lineNumber++;
+    if (line.length() > maxLineLength) {
+      writeLineTooLong();
+      return;
+    }
+    if (line.length() == 0 || line.toString().trim().isEmpty()) {
+      return;
+    }
+    User user;
+    try {
+      user = new User(new JsonObject(line.toString()));
+    } catch (DecodeException e) {
+      writeResult(new JsonObject().put("line", lineNumber).put("status", 400).put("error", "Invalid JSON"));
+      return;
+    }
+    if (user.getUsername() == null || user.getPassword() == null) {
+      writeResult(new JsonObject().put("line", lineNumber).put("username", user.getUsername())
+        .put("status", 400).put("error", "Username or password is not valid"));
+      return;
+    }
+    batch.add(user);
+    batchLines.add(lineNumber);
+    if (batch.size() >= batchSize) {
+      flushBatch();
+    }
+  }
+
+  private void flushBatch() {
+    if (batch.isEmpty()) {
+      return;
+    }
+    List<User> users = batch;
+    List<Integer> lines = batchLines;
+    newBatch();
+
+    inFlight++;
+    updateFlow();
+    userService.addUsers(users, ar -> {
+      inFlight--;
+      if (ar.succeeded()) {
+        JsonArray results = ar.result();
+        for (int i = 0; i < results.size(); i++) {
+          writeResult(results.getJsonObject(i).put("line", lines.get(i)));
+        }
+      } else {
+        for (int i = 0; i < users.size(); i++) {
+          writeResult(new JsonObject().put("line", lines.get(i)).put("username", users.get(i).getUsername())
+            .put("status", 500).put("error", ar.cause().getMessage()));
+        }
+      }
+      updateFlow();
+      endIfDone();
+    });
+  }
+
+  private void writeLineTooLong() {
+    writeResult(new JsonObject().put("line", lineNumber).put("status", 400)
+      .put("error", "Line longer than " + maxLineLength + " bytes"));
+  }
+
+  private void writeResult(JsonObject result) {
+    response.write(result.encode() + "\n");
+  }
+
+  /**
+   * Pause the request while too many batches are in flight or the response is full, resume it otherwise.
+   */
+  private void updateFlow() {
+    if (ended) {
+      return;
+    }
+    if (inFlight >= maxInFlight) {
+      pause();
+    } else if (response.writeQueueFull()) {
+      pause();
+      response.drainHandler(v -> updateFlow());
+    } else if (paused) {
+      paused = false;
+      request.resume();
+    }
+  }
+
+  private void pause() {
+    if (!paused) {
+      paused = true;
+      request.pause();
+    }
+  }
+
+  private void endIfDone() {
+    if (ended && inFlight == 0 && batch.isEmpty()) {
+      response.end();
+    }
+  }
+
+  private void newBatch() {
+    batch = new ArrayList<>(batchSize);
+    batchLines = new ArrayList<>(batchSize);
+  }
+}
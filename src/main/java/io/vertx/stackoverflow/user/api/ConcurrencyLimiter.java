@@ -0,0 +1,138 @@
+package io.vertx.stackoverflow.user.api;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Adaptive limit of the requests in flight on the node, shared by all the REST verticle instances.
+ * <p>
+ * The limit follows TCP Vegas: the queue building up behind the limit is estimated from how much the latency of a
+ * request exceeds the lowest latency seen, {@code queue = limit * (1 - minRtt / rtt)}. The limit grows while that queue
+ * is short, shrinks when it gets long, and is cut by {@code backoff-ratio} when a request fails for lack of capacity.
+ * <p>
+ * Requests over the limit are rejected at once. Lower priorities only get a share of the limit, so they are shed
+ * before the higher ones.
+ */
+public class ConcurrencyLimiter {
+
+  public enum Priority {
+    /** logins, admitted up to the whole limit */
+    HIGH,
+    NORMAL,
+    /** bulk imports and exports */
+    LOW
+  }
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final double backoffRatio;
+  private final double normalShare;
+  private final double lowShare;
+  private final int probeInterval;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final LongAdder[] rejected = new LongAdder[Priority.values().length];
+  private volatile int limit;
+
+  // guarded by this
+  private double estimatedLimit;
+  private long minRttNanos = Long.MAX_VALUE;
+  private long samples;
+
+  public ConcurrencyLimiter(JsonObject config) {
+    this.minLimit = config.getInteger("min-limit", 10);
+    this.maxLimit = config.getInteger("max-limit", 1000);
+    this.backoffRatio = config.getDouble("backoff-ratio", 0.9);
+    this.normalShare = config.getDouble("normal-share", 0.9);
+    this.lowShare = config.getDouble("low-share", 0.5);
+    this.probeInterval = config.getInteger("probe-interval", 1000);
+    this.estimatedLimit = config.getInteger("initial-limit", 100);
+    this.limit = (int) estimatedLimit;
+    for (int i = 0; i < rejected.length; i++) {
+      rejected[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * @return whether the request may proceed, in which case {@link #release} must be called once it completes
+   */
+  public boolean tryAcquire(Priority priority) {
+    int max = maxInFlight(priority);
+    while (true) {
+      int current = inFlight.get();
+      if (current >= max) {
+        rejected[priority.ordinal()].increment();
+        return false;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * @param rttNanos time the request took, negative not to sample it
+   * @param dropped  whether the request failed for lack of capacity
+   */
+  public void release(long rttNanos, boolean dropped) {
+    int current = inFlight.getAndDecrement();
+    if (dropped) {
+      onDrop();
+    } else if (rttNanos >= 0) {
+      onSample(rttNanos, current);
+    }
+  }
+
+  public int limit() {
+    return limit;
+  }
+
+  public int inFlight() {
+    return inFlight.get();
+  }
+
+  public long rejected(Priority priority) {
+    return rejected[priority.ordinal()].sum();
+  }
+
+  private int maxInFlight(Priority priority) {
+    switch (priority) {
+      case HIGH:
+        return limit;
+      case NORMAL:
+        return Math.max(1, (int) (limit * normalShare));
+      default:
+        return Math.max(1, (int) (limit * lowShare));
+    }
+  }
+
+  private synchronized void onSample(long rttNanos, int inFlightAtEnd) {
+    // forget the lowest latency from time to time, so it follows lasting changes of the latency of Mongo
+    if (++samples % probeInterval == 0 || rttNanos < minRttNanos) {
+      minRttNanos = Math.max(1, rttNanos);
+    }
+    // a limit that isn't reached tells nothing about the capacity
+    if (inFlightAtEnd * 2 < estimatedLimit) {
+      return;
+    }
+    double queue = Math.ceil(estimatedLimit * (1 - (double) minRttNanos / Math.max(1, rttNanos)));
+    double log = Math.max(1, Math.log10(estimatedLimit));
+    if (queue <= log) {
+      setLimit(estimatedLimit + 6 * log);
+    } else if (queue < 3 * log) {
+      setLimit(estimatedLimit + log);
+    } else if (queue > 6 * log) {
+      setLimit(estimatedLimit - log);
+    }
+  }
+
+  private synchronized void onDrop() {
+    setLimit(estimatedLimit * backoffRatio);
+  }
+
+  private void setLimit(double newLimit) {
+    estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    limit = (int) estimatedLimit;
+  }
+}
@@ -0,0 +1,254 @@
+package io.vertx.stackoverflow.user.api;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Token bucket rate limiting of logins, by username and by client address.
+ * <p>
+ * Each key has its own bucket, locked on its own, so concurrent logins of different keys never contend. Usernames and
+ * addresses are kept apart, at most {@code max-keys} buckets each, so spraying usernames can't crowd out the buckets of
+ * the addresses. Buckets idle for {@code idle-timeout} milliseconds are evicted by {@link #evictIdle()}. While full,
+ * a new key shares one of {@code overflow-buckets} buckets, picked by a hash of the key seeded per limiter, so the
+ * keys that can't be tracked only contend with a small share of each other rather than all together.
+ * <p>
+ * Behind a proxy every request comes from the proxy's address, so the client address is taken from the
+ * {@code X-Forwarded-For} or {@code Forwarded} header of the requests coming from the {@code trusted-proxies}
+ * addresses, and only from those: anyone else could forge these headers.
+ */
+public class LoginRateLimiter {
+
+  private final long idleTimeout;
+  private final Buckets users;
+  private final Buckets addresses;
+  private final Set<String> trustedProxies = new HashSet<>();
+
+  public LoginRateLimiter(JsonObject config) {
+    int maxKeys = config.getInteger("max-keys", 100000);
+    int overflowBuckets = config.getInteger("overflow-buckets", 16384);
+    this.idleTimeout = TimeUnit.MILLISECONDS.toNanos(config.getLong("idle-timeout", 600000L));
+    this.users = new Buckets(maxKeys, overflowBuckets, config.getInteger("user-burst", 5),
+      perNano(config.getInteger("user-per-minute", 10)));
+    this.addresses = new Buckets(maxKeys, overflowBuckets, config.getInteger("ip-burst", 20),
+      perNano(config.getInteger("ip-per-minute", 120)));
+    JsonArray proxies = config.getJsonArray("trusted-proxies") != null ?
+      config.getJsonArray("trusted-proxies") : new JsonArray();
+    proxies.forEach(proxy -> trustedProxies.add((String) proxy));
+  }
+
+  /**
+   * @return the address of the client of the request, past the trusted proxies it went through
+   */
+  public String clientAddress(HttpServerRequest request) {
+    String remote = request.remoteAddress().host();
+    if (!trustedProxies.contains(remote)) {
+      return remote;
+    }
+    List<String> hops = forwardedFor(request);
+    // the nearest hops were added by our proxies, the first untrusted one is the client
+    for (int i = hops.size() - 1; i >= 0; i--) {
+      if (!trustedProxies.contains(hops.get(i))) {
+        return hops.get(i);
+      }
+    }
+    return hops.isEmpty() ? remote : hops.get(0);
+  }
+
+  /**
+   * Take a login attempt of a user from a client address.
+   *
+   * @return 0 if the attempt is allowed, otherwise the number of milliseconds until it would be
+   */
+  public long acquire(String username, String address) {
+    long now = System.nanoTime();
+    // an attempt the username bucket rejects doesn't cost the address a token, nor the other way round, and the
+    // username only gets a bucket of its own once the address let it through
+    Bucket user = users.find(username, now);
+    long wait = user == null ? 0 : user.waitTime(now);
+    if (wait > 0) {
+      return wait;
+    }
+    wait = addresses.get(address, now).acquire(now);
+    if (wait > 0) {
+      return wait;
+    }
+    return users.get(username, now).acquire(now);
+  }
+
+  /**
+   * Drop the buckets that haven't been used for {@code idle-timeout}, meant to be called periodically.
+   */
+  public void evictIdle() {
+    long now = System.nanoTime();
+    users.evictIdle(now, idleTimeout);
+    addresses.evictIdle(now, idleTimeout);
+  }
+
+  public int size() {
+    return users.size() + addresses.size();
+  }
+
+  /**
+   * @return the addresses the request was forwarded for, the client first
+   */
+  private static List<String> forwardedFor(HttpServerRequest request) {
+    List<String> hops = new ArrayList<>();
+    String xForwardedFor = request.getHeader("X-Forwarded-For");
+    if (xForwardedFor != null) {
+      for (String hop : xForwardedFor.split(",")) {
+        if (!hop.trim().isEmpty()) {
+          hops.add(hop.trim());
+        }
+      }
+      return hops;
+    }
+    String forwarded = request.getHeader("Forwarded");
+    if (forwarded != null) {
+      // e.g. for=192.0.2.60;proto=http, for="[2001:db8::1]:4711"
+      for (String element : forwarded.split(",")) {
+        for (String pair : element.split(";")) {
+          String[] nameValue = pair.trim().split("=", 2);
+          if (nameValue.length == 2 && nameValue[0].equalsIgnoreCase("for")) {
+            hops.add(forwardedNode(nameValue[1].trim()));
+          }
+        }
+      }
+    }
+    return hops;
+  }
+
+  /**
+   * @return the address of a node of a {@code Forwarded} header, without quotes, brackets or port
+   */
+  private static String forwardedNode(String node) {
+    String address = node.startsWith("\"") && node.endsWith("\"") && node.length() > 1 ?
+      node.substring(1, node.length() - 1) : node;
+    if (address.startsWith("[")) {
+      int end = address.indexOf(']');
+      return end > 0 ? address.substring(1, end) : address;
+    }
+    int colon = address.indexOf(':');
+    return colon >= 0 && colon == address.lastIndexOf(':') ? address.substring(0, colon) : address;
+  }
+
+  private static double perNano(int perMinute) {
+    return perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+  }
+
+  /**
+   * Buckets of one kind of key, with the shared ones of the keys beyond {@code maxKeys}.
+   */
+  private static final class Buckets {
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final int maxKeys;
+    private final int burst;
+    private final double rate;
+    // created on first use, most limiters never fill up
+    private final AtomicReferenceArray<Bucket> overflow;
+    private final int seed = ThreadLocalRandom.current().nextInt();
+
+    private Buckets(int maxKeys, int overflowBuckets, int burst, double rate) {
+      this.maxKeys = maxKeys;
+      this.burst = burst;
+      this.rate = rate;
+      this.overflow = new AtomicReferenceArray<>(Math.max(1, overflowBuckets));
+    }
+
+    /**
+     * @return the bucket of a key, {@code null} if it has none yet
+     */
+    private Bucket find(String key, long now) {
+      Bucket bucket = buckets.get(key);
+      if (bucket == null && buckets.size() >= maxKeys) {
+        return overflow(key, now);
+      }
+      return bucket;
+    }
+
+    private Bucket get(String key, long now) {
+      Bucket bucket = buckets.get(key);
+      if (bucket != null) {
+        return bucket;
+      }
+      if (buckets.size() >= maxKeys) {
+        return overflow(key, now);
+      }
+      return buckets.computeIfAbsent(key, k -> new Bucket(burst, rate, now));
+    }
+
+    private Bucket overflow(String key, long now) {
+      // FNV-1a from a random basis: the keys sharing a bucket can't be picked in advance, unlike with hashCode()
+      int hash = seed;
+      for (int i = 0; i < key.length(); i++) {
+        hash = (hash ^ key.charAt(i)) * 16777619;
+      }
+      int index = (hash & Integer.MAX_VALUE) % overflow.length();
+      Bucket bucket = overflow.get(index);
+      if (bucket == null) {
+        overflow.compareAndSet(index, null, new Bucket(burst, rate, now));
+        bucket = overflow.get(index);
+      }
+      return bucket;
+    }
+
+    private void evictIdle(long now, long idleTimeout) {
+      buckets.values().removeIf(bucket -> bucket.isIdle(now, idleTimeout));
+    }
+
+    private int size() {
+      return buckets.size();
+    }
+  }
+
+  private static final class Bucket {
+    private final int capacity;
+    private final double rate;
+    private double tokens;
+    private long lastRefill;
+
+    private Bucket(int capacity, double rate, long now) {
+      this.capacity = capacity;
+      this.rate = rate;
+      this.tokens = capacity;
+      this.lastRefill = now;
+    }
+
+    private synchronized long acquire(long now) {
+      long wait = waitTime(now);
+      if (wait == 0) {
+        tokens--;
+      }
+      return wait;
+    }
+
+    /**
+     * @return 0 if a token is available, otherwise the number of milliseconds until one is
+     */
+    private synchronized long waitTime(long now) {
+      refill(now);
+      if (tokens >= 1) {
+        return 0;
+      }
+      return Math.max(1, TimeUnit.NANOSECONDS.toMillis((long) ((1 - tokens) / rate)));
+    }
+
+    private synchronized boolean isIdle(long now, long idleTimeout) {
+      return now - lastRefill > idleTimeout;
+    }
+
+    private void refill(long now) {
+      tokens = Math.min(capacity, tokens + (now - lastRefill) * rate);
+      lastRefill = now;
+    }
+  }
+}
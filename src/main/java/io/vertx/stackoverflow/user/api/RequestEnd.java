@@ -0,0 +1,69 @@
+package io.vertx.stackoverflow.user.api;
+
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.stackoverflow.user.metrics.LatencyTimer;
+
+/**
+ * What is left to do once the response of a request is sent or the connection is closed: releasing its slot of the
+ * {@link ConcurrencyLimiter} and recording its latency.
+ * <p>
+ * A response only takes a single end handler, so a request has a single instance of this class, which is its end
+ * handler.
+ */
+final class RequestEnd implements Handler<Void> {
+
+  private static final String KEY = "requestEnd";
+
+  private final HttpServerResponse response;
+  private ConcurrencyLimiter limiter;
+  private ConcurrencyLimiter.Priority priority;
+  private long limiterStart;
+  private LatencyTimer timer;
+  private long timerStart;
+  private boolean done;
+
+  private RequestEnd(HttpServerResponse response) {
+    this.response = response;
+  }
+
+  static RequestEnd of(RoutingContext context) {
+    RequestEnd end = context.get(KEY);
+    if (end == null) {
+      end = new RequestEnd(context.response());
+      context.put(KEY, end);
+      context.response().endHandler(end);
+    }
+    return end;
+  }
+
+  void release(ConcurrencyLimiter limiter, ConcurrencyLimiter.Priority priority) {
+    this.limiter = limiter;
+    this.priority = priority;
+    this.limiterStart = System.nanoTime();
+  }
+
+  void time(LatencyTimer timer) {
+    this.timer = timer;
+    this.timerStart = timer.begin();
+  }
+
+  @Override
+  public void handle(Void event) {
+    // called once the response is either sent or closed
+    if (done) {
+      return;
+    }
+    done = true;
+    if (limiter != null) {
+      boolean ended = response.ended();
+      // only the latency of the regular requests tells how loaded Mongo is, logins are bound by hashing
+      long rtt = ended && priority == ConcurrencyLimiter.Priority.NORMAL ? System.nanoTime() - limiterStart : -1;
+      limiter.release(rtt, ended && response.getStatusCode() == 503);
+    }
+    if (timer != null) {
+      timer.end(timerStart);
+    }
+  }
+}
@@ -1,16 +1,45 @@
 package io.vertx.stackoverflow.user.api;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.List;
+
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.Http2Settings;
 import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.net.JksOptions;
+import io.vertx.core.net.OpenSSLEngineOptions;
+import io.vertx.ext.healthchecks.HealthCheckHandler;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
 import io.vertx.stackoverflow.user.BaseVerticle;
 import io.vertx.stackoverflow.user.User;
 import io.vertx.stackoverflow.user.UserService;
+import io.vertx.stackoverflow.user.UserServiceException;
+import io.vertx.stackoverflow.user.health.UserHealthChecks;
+import io.vertx.stackoverflow.user.impl.UserSuggestIndex;
+import io.vertx.stackoverflow.user.metrics.EventLoopLagProbe;
+import io.vertx.stackoverflow.user.metrics.LatencyTimer;
+import io.vertx.stackoverflow.user.metrics.MetricsRegistry;
 
 /**
  * Created by napal on 25/06/17.
@@ -18,16 +47,70 @@ import io.vertx.stackoverflow.user.UserService;
 public class UserAPIVerticle extends BaseVerticle {
 
   private static final String ADD_USER = "/user";
+  private static final String BULK_ADD_USERS = "/user/_bulk";
+  private static final String LIST_USERS = "/user";
+  private static final String RETRIEVE_USERS = "/users";
+  private static final String SUGGEST_USERS = "/user/_suggest";
+  private static final int DEFAULT_SUGGESTIONS = 10;
+  private static final int MAX_SUGGESTIONS = 50;
+  private static final int MAX_RETRIEVE_USERS = 100;
+  private static final int DEFAULT_PAGE_SIZE = 100;
+  private static final String CLAIMS = "claims";
+  private static final String METRICS = "/metrics";
+  private static final String HEALTH = "/health";
+  private static final String READY = "/ready";
+
+  private static final CharSequence CONTENT_TYPE = HttpHeaders.CONTENT_TYPE;
+  private static final CharSequence APPLICATION_JSON = HttpHeaders.createOptimized("application/json");
+  private static final CharSequence PROMETHEUS_TEXT = HttpHeaders.createOptimized("text/plain; version=0.0.4");
+  // clients may keep responses but have to revalidate them
+  private static final CharSequence NO_CACHE = HttpHeaders.createOptimized("private, no-cache");
+  // bodies of the fixed responses, encoded once
+  private static final Buffer FORBIDDEN = Buffer.buffer(new JsonObject().put("error", "forbidden").encode());
+  private static final Buffer TOO_MANY_REQUESTS =
+    Buffer.buffer(new JsonObject().put("error", "too_many_requests").encode());
+  private static final Buffer OVERLOADED = Buffer.buffer(new JsonObject().put("error", "overloaded").encode());
+  private static final Buffer NOT_FOUND = Buffer.buffer(new JsonObject().put("message", "not_found").encode());
+  private static final int MAX_PAGE_SIZE = 1000;
   private static final String RETRIEVE_USER = "/user/:id";
   private static final String UPDATE_USER = "/user/:id";
+  private static final String PATCH_USER = "/user/:id";
   private static final String DELETE_USER = "/user/:id";
   private static final String USER_LOGIN = "/user/login";
   private static final String USER_LOGOUT = "/user/logout";
 
+  private static final Logger logger = LoggerFactory.getLogger(UserAPIVerticle.class);
+
   private final UserService userService;
+  private final LoginRateLimiter loginRateLimiter;
+  private final MetricsRegistry metrics;
+  private final UserHealthChecks healthChecks;
+  private final ConcurrencyLimiter concurrencyLimiter;
+  private final UserSuggestIndex suggestIndex;
+  private EventLoopLagProbe eventLoopLagProbe;
+  // whether the ETags are weak, as compressed and identity bodies then share them
+  private boolean weakEtags;
 
   public UserAPIVerticle(UserService userService) {
+    this(userService, null, new MetricsRegistry(), null, null, null);
+  }
+
+  /**
+   * @param loginRateLimiter   limiter of login attempts shared by all the instances, {@code null} to disable it
+   * @param metrics            registry of the metrics shared by all the instances
+   * @param healthChecks       health and readiness checks of the node, {@code null} to not expose them
+   * @param concurrencyLimiter limiter of the requests in flight shared by all the instances, {@code null} to disable it
+   * @param suggestIndex       autocompletion index of the users, {@code null} to not serve suggestions
+   */
+  public UserAPIVerticle(UserService userService, LoginRateLimiter loginRateLimiter, MetricsRegistry metrics,
+                         UserHealthChecks healthChecks, ConcurrencyLimiter concurrencyLimiter,
+                         UserSuggestIndex suggestIndex) {
     this.userService = userService;
+    this.loginRateLimiter = loginRateLimiter;
+    this.metrics = metrics;
+    this.healthChecks = healthChecks;
+    this.concurrencyLimiter = concurrencyLimiter;
+    this.suggestIndex = suggestIndex;
   }
 
   @Override
@@ -35,18 +118,55 @@ public class UserAPIVerticle extends BaseVerticle {
     super.start();
 
     final Router router = Router.router(vertx);
-    // add body handler
-    router.route().handler(BodyHandler.create());
     // cors handler
     addCorsHandler(router);
 
+    // sample the lag of the event loop of this instance
+    eventLoopLagProbe = new EventLoopLagProbe(vertx,
+      metrics.timer("user_event_loop_lag", "loop=\"" + Thread.currentThread().getName() + "\"", "event loop timers"),
+      config().getLong("user.service.event-loop-lag.interval", 100L));
+    eventLoopLagProbe.start();
+
+    // operational routes, never shed
+    router.get(METRICS).handler(this:: scrapeMetrics);
+    if (healthChecks != null) {
+      healthChecks.addEventLoop(eventLoopLagProbe);
+      router.get(HEALTH).handler(HealthCheckHandler.createWithHealthChecks(healthChecks.health()));
+      router.get(READY).handler(HealthCheckHandler.createWithHealthChecks(healthChecks.readiness()));
+    }
+
+    // shed the requests over the concurrency limit before doing any work for them
+    if (concurrencyLimiter != null) {
+      router.route().handler(this:: limitConcurrency);
+    }
+
+    // authentication of the protected routes, ahead of any body handling
+    router.post(BULK_ADD_USERS).handler(this:: authenticate);
+    router.get(LIST_USERS).handler(this:: authenticate);
+    router.get(RETRIEVE_USER).handler(this:: authenticate);
+    router.get(RETRIEVE_USERS).handler(this:: authenticate);
+    router.put(UPDATE_USER).handler(this:: authenticate);
+    router.patch(PATCH_USER).handler(this:: authenticate);
+    router.delete(DELETE_USER).handler(this:: authenticate);
+    // bulk import streams the request body, so it is routed before the body handler
+    router.post(BULK_ADD_USERS).handler(timed("bulk_add_users", this:: bulkAddUsers));
+    // add body handler
+    router.route().handler(BodyHandler.create());
+
     //add api route handler
-    router.post(ADD_USER).handler(this:: addUser);
-    router.get(RETRIEVE_USER).handler(this:: retrieveUser);
-    router.put(UPDATE_USER).handler(this:: updateUser);
-    router.delete(DELETE_USER).handler(this:: deleteUser);
-    router.post(USER_LOGIN).handler(this:: loginUser);
-    router.post(USER_LOGOUT).handler(this:: logoutUser);
+    router.post(ADD_USER).handler(timed("add_user", this:: addUser));
+    router.get(LIST_USERS).handler(timed("list_users", this:: listUsers));
+    // authenticated as a RETRIEVE_USER path, served before it
+    if (suggestIndex != null) {
+      router.get(SUGGEST_USERS).handler(timed("suggest_users", this:: suggestUsers));
+    }
+    router.get(RETRIEVE_USER).handler(timed("retrieve_user", this:: retrieveUser));
+    router.get(RETRIEVE_USERS).handler(timed("retrieve_users", this:: retrieveUsers));
+    router.put(UPDATE_USER).handler(timed("update_user", this:: updateUser));
+    router.patch(PATCH_USER).handler(timed("patch_user", this:: patchUser));
+    router.delete(DELETE_USER).handler(timed("delete_user", this:: deleteUser));
+    router.post(USER_LOGIN).handler(timed("login_user", this:: loginUser));
+    router.post(USER_LOGOUT).handler(timed("logout_user", this:: logoutUser));
 
     // http server host and port
     String host = config().getString("user.service.http.address", "0.0.0.0");
@@ -85,8 +205,19 @@ public class UserAPIVerticle extends BaseVerticle {
 
   }
 
+  @Override
+  public void stop(Future<Void> future) throws Exception {
+    if (healthChecks != null) {
+      healthChecks.removeEventLoop(eventLoopLagProbe);
+    }
+    super.stop(future);
+  }
+
   private void addUser(RoutingContext context) {
-    User user = new User(context.getBodyAsJson());
+    User user = decodeUser(context);
+    if (user == null) {
+      return;
+    }
     if (user.getUsername() == null || user.getPassword() == null) {
       badRequest(context, new IllegalStateException("Username or password is not valid"));
     } else {
@@ -94,38 +225,245 @@ public class UserAPIVerticle extends BaseVerticle {
     }
   }
 
+  private void bulkAddUsers(RoutingContext context) {
+    JsonObject bulkOptions = config().getJsonObject("bulk-import") != null ?
+      config().getJsonObject("bulk-import") : new JsonObject();
+    new BulkImportHandler(userService, context.request(),
+      bulkOptions.getInteger("batch-size", 500),
+      bulkOptions.getInteger("max-in-flight", 2),
+      bulkOptions.getInteger("max-line-length", 65536)).start();
+  }
+
   private void loginUser(RoutingContext context) {
-    JsonObject user = context.getBodyAsJson();
-    String username = user.getString("username");
-    String password = user.getString("password");
+    User user = decodeUser(context);
+    if (user == null) {
+      return;
+    }
+    String username = user.getUsername();
+    String password = user.getPassword();
     if (username == null || password == null) {
       badRequest(context, new IllegalStateException("Username or password is not valid"));
-    } else {
-      JsonObject result = new JsonObject().put("message", "user login successful");
-      userService.loginUser(username, password, resultHandlerNonEmpty(context));
+      return;
     }
+    if (loginRateLimiter != null) {
+      long retryAfter = loginRateLimiter.acquire(username, loginRateLimiter.clientAddress(context.request()));
+      if (retryAfter > 0) {
+        tooManyRequests(context, retryAfter);
+        return;
+      }
+    }
+    userService.loginUser(username, password, resultHandlerNonEmpty(context));
   }
 
   private void retrieveUser(RoutingContext context) {
-    System.out.println("Entered retrieveUser");
     String username = context.request().getParam("id");
-    System.out.println("Retrieve " + username);
-    userService.retrieveUser(username, resultHandlerNonEmpty(context));
+    userService.retrieveUser(username, conditionalResultHandler(context));
+  }
+
+  private void listUsers(RoutingContext context) {
+    String after = context.request().getParam("after");
+    if ("ndjson".equals(context.request().getParam("format"))) {
+      new UserExportHandler(userService, context.response(),
+        config().getInteger("user.service.export.page-size", MAX_PAGE_SIZE)).start(after);
+      return;
+    }
+
+    int limit;
+    try {
+      String limitParam = context.request().getParam("limit");
+      limit = limitParam == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(limitParam);
+    } catch (NumberFormatException e) {
+      badRequest(context, new IllegalStateException("limit is not a number"));
+      return;
+    }
+    if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+      badRequest(context, new IllegalStateException("limit must be between 1 and " + MAX_PAGE_SIZE));
+      return;
+    }
+
+    userService.listUsers(after, limit, ar -> {
+      if (ar.succeeded()) {
+        JsonArray users = ar.result();
+        // the cursor of the next page, only when this one is full
+        String next = users.size() < limit ? null : users.getJsonObject(users.size() - 1).getString("username");
+        context.response()
+          .putHeader(CONTENT_TYPE, APPLICATION_JSON)
+          .end(new JsonObject().put("users", users).put("next", next).encode());
+      } else {
+        serviceError(context, ar.cause());
+      }
+    });
+  }
+
+  private void retrieveUsers(RoutingContext context) {
+    String ids = context.request().getParam("ids");
+    if (ids == null || ids.isEmpty()) {
+      badRequest(context, new IllegalStateException("ids is missing"));
+      return;
+    }
+    List<String> usernames = new ArrayList<>(new LinkedHashSet<>(Arrays.asList(ids.split(","))));
+    if (usernames.size() > MAX_RETRIEVE_USERS) {
+      badRequest(context, new IllegalStateException("At most " + MAX_RETRIEVE_USERS + " ids can be retrieved at once"));
+      return;
+    }
+    userService.retrieveUsers(usernames, ar -> {
+      if (ar.succeeded()) {
+        context.response()
+          .putHeader(CONTENT_TYPE, APPLICATION_JSON)
+          .end(new JsonObject().put("users", ar.result()).encode());
+      } else {
+        serviceError(context, ar.cause());
+      }
+    });
+  }
+
+  private void suggestUsers(RoutingContext context) {
+    String prefix = context.request().getParam("prefix");
+    if (prefix == null || prefix.isEmpty()) {
+      badRequest(context, new IllegalStateException("prefix is missing"));
+      return;
+    }
+    int limit;
+    try {
+      String limitParam = context.request().getParam("limit");
+      limit = limitParam == null ? DEFAULT_SUGGESTIONS : Integer.parseInt(limitParam);
+    } catch (NumberFormatException e) {
+      badRequest(context, new IllegalStateException("limit is not a number"));
+      return;
+    }
+    if (limit <= 0 || limit > MAX_SUGGESTIONS) {
+      badRequest(context, new IllegalStateException("limit must be between 1 and " + MAX_SUGGESTIONS));
+      return;
+    }
+    context.response()
+      .putHeader(CONTENT_TYPE, APPLICATION_JSON)
+      .end(new JsonObject().put("users", suggestIndex.suggest(prefix, limit)).encode());
   }
 
   private void deleteUser(RoutingContext context) {
     String username = context.request().getParam("id");
+    if (!isAuthenticatedAs(context, username)) {
+      forbidden(context);
+      return;
+    }
     userService.deleteUser(username, deleteResultHandler(context));
   }
 
   private void logoutUser(RoutingContext context) {
+    String token = bearerToken(context);
+    if (token == null) {
+      badRequest(context, new IllegalStateException("Authorization token is missing"));
+    } else {
+      JsonObject result = new JsonObject().put("message", "user logout successful");
+      userService.logoutUser(token, resultVoidHandler(context, result));
+    }
+  }
+
+  private void scrapeMetrics(RoutingContext context) {
+    context.response()
+      .putHeader(CONTENT_TYPE, PROMETHEUS_TEXT)
+      .end(metrics.scrape());
+  }
 
+  private void limitConcurrency(RoutingContext context) {
+    ConcurrencyLimiter.Priority priority = priority(context.request());
+    if (!concurrencyLimiter.tryAcquire(priority)) {
+      context.response()
+        .setStatusCode(503)
+        .putHeader(CONTENT_TYPE, APPLICATION_JSON)
+        .end(OVERLOADED);
+      return;
+    }
+    RequestEnd.of(context).release(concurrencyLimiter, priority);
+    context.next();
+  }
+
+  private static ConcurrencyLimiter.Priority priority(HttpServerRequest request) {
+    String path = request.path();
+    if (request.method() == HttpMethod.POST && USER_LOGIN.equals(path)) {
+      return ConcurrencyLimiter.Priority.HIGH;
+    }
+    if (request.method() == HttpMethod.POST && BULK_ADD_USERS.equals(path) ||
+      request.method() == HttpMethod.GET && LIST_USERS.equals(path) && "ndjson".equals(request.getParam("format"))) {
+      return ConcurrencyLimiter.Priority.LOW;
+    }
+    return ConcurrencyLimiter.Priority.NORMAL;
+  }
+
+  /**
+   * Record the latency of a route, from the time its handler is reached until the response is sent.
+   */
+  private Handler<RoutingContext> timed(String route, Handler<RoutingContext> handler) {
+    LatencyTimer timer = metrics.timer("user_http_request", "route=\"" + route + "\"", "http requests");
+    return context -> {
+      // ended on close too, unlike a body end handler, so requests of clients gone never stay in flight
+      RequestEnd.of(context).time(timer);
+      handler.handle(context);
+    };
+  }
+
+  /**
+   * @return the user of the request body, or {@code null} once a bad request has been answered
+   */
+  private User decodeUser(RoutingContext context) {
+    try {
+      return UserJsonDecoder.decode(context.getBody());
+    } catch (DecodeException e) {
+      badRequest(context, e);
+      return null;
+    }
+  }
+
+  /**
+   * Let the request through only with a valid token, whose claims are then available to the next handlers.
+   */
+  private void authenticate(RoutingContext context) {
+    String token = bearerToken(context);
+    if (token == null) {
+      serviceError(context,
+        new UserServiceException(UserServiceException.UNAUTHORIZED, "Authorization token is missing"));
+      return;
+    }
+    // hold the body until the route handling it is reached
+    HttpServerRequest request = context.request();
+    request.pause();
+    userService.authenticate(token, ar -> {
+      if (ar.succeeded()) {
+        context.put(CLAIMS, ar.result());
+        context.next();
+      } else {
+        serviceError(context, ar.cause());
+      }
+      request.resume();
+    });
+  }
+
+  private boolean isAuthenticatedAs(RoutingContext context, String username) {
+    JsonObject claims = context.get(CLAIMS);
+    return claims != null && username != null && username.equals(claims.getString("sub"));
+  }
+
+  /**
+   * @return the token of the Authorization header, with or without the Bearer scheme
+   */
+  private String bearerToken(RoutingContext context) {
+    String authorization = context.request().getHeader("Authorization");
+    if (authorization == null) {
+      return null;
+    }
+    return authorization.startsWith("Bearer ") ? authorization.substring(7) : authorization;
   }
 
   private void updateUser(RoutingContext context) {
-    User user = new User(context.getBodyAsJson());
+    User user = decodeUser(context);
+    if (user == null) {
+      return;
+    }
     if (user.getUsername() == null || user.getPassword() == null) {
       badRequest(context, new IllegalStateException("Username or password is not valid"));
+    } else if (!isAuthenticatedAs(context, context.request().getParam("id"))
+      || !isAuthenticatedAs(context, user.getUsername())) {
+      forbidden(context);
     } else {
       JsonObject result = new JsonObject().put("message", "user update")
         .put("username", user.getUsername());
@@ -134,14 +472,74 @@ public class UserAPIVerticle extends BaseVerticle {
 
   }
 
+  private void patchUser(RoutingContext context) {
+    User changes = decodeUser(context);
+    if (changes == null) {
+      return;
+    }
+    String username = context.request().getParam("id");
+    if (changes.getUsername() != null && !changes.getUsername().equals(username)) {
+      badRequest(context, new IllegalStateException("Username can't be changed"));
+    } else if (changes.getPassword() == null && changes.getEmail() == null && changes.getFirstName() == null
+      && changes.getLastName() == null && changes.getPhone() == null) {
+      badRequest(context, new IllegalStateException("Nothing to update"));
+    } else if (!isAuthenticatedAs(context, username)) {
+      forbidden(context);
+    } else {
+      JsonObject result = new JsonObject().put("message", "user update")
+        .put("username", username);
+      userService.patchUser(username, changes, resultVoidHandler(context, result));
+    }
+  }
+
   protected Future<Void> createHttpServer(Router router, String host, int port) {
     Future<HttpServer> httpServerFuture = Future.future();
-    vertx.createHttpServer()
+    HttpServerOptions options = httpServerOptions();
+    weakEtags = options.isCompressionSupported();
+    vertx.createHttpServer(options)
       .requestHandler(router::accept)
       .listen(port, host, httpServerFuture.completer());
     return httpServerFuture.map(r -> null);
   }
 
+  /**
+   * Options of the http server from the {@code http-server} configuration.
+   * <p>
+   * Without TLS, HTTP/1.1 and h2c (upgrade or prior knowledge) are served. With TLS, the protocol is negotiated with
+   * ALPN, which on JDK 8 requires either OpenSSL or the Jetty ALPN agent.
+   */
+  protected HttpServerOptions httpServerOptions() {
+    JsonObject serverConfig = config().getJsonObject("http-server") != null ?
+      config().getJsonObject("http-server") : new JsonObject();
+
+    HttpServerOptions options = new HttpServerOptions()
+      .setTcpNoDelay(serverConfig.getBoolean("tcp-no-delay", true))
+      .setTcpKeepAlive(serverConfig.getBoolean("tcp-keep-alive", true))
+      .setIdleTimeout(serverConfig.getInteger("idle-timeout", 60))
+      .setAcceptBacklog(serverConfig.getInteger("accept-backlog", 1024))
+      .setCompressionSupported(serverConfig.getBoolean("compression", false))
+      .setCompressionLevel(serverConfig.getInteger("compression-level", 1))
+      .setDecompressionSupported(serverConfig.getBoolean("decompression", false))
+      .setInitialSettings(new Http2Settings()
+        .setMaxConcurrentStreams(serverConfig.getLong("h2-max-concurrent-streams", 100L)));
+
+    JsonObject tls = serverConfig.getJsonObject("tls");
+    if (tls != null && tls.getBoolean("enabled", true)) {
+      options.setSsl(true)
+        .setKeyStoreOptions(new JksOptions()
+          .setPath(tls.getString("key-store-path"))
+          .setPassword(tls.getString("key-store-password")));
+      if (tls.getBoolean("openssl", false)) {
+        options.setOpenSslEngineOptions(new OpenSSLEngineOptions());
+      }
+      if (serverConfig.getBoolean("h2", true)) {
+        options.setUseAlpn(true)
+          .setAlpnVersions(Arrays.asList(HttpVersion.HTTP_2, HttpVersion.HTTP_1_1));
+      }
+    }
+    return options;
+  }
+
   protected Handler<AsyncResult<Void>> resultVoidHandler(RoutingContext context, JsonObject result) {
     return resultVoidHandler(context, result, 200);
   }
@@ -151,11 +549,10 @@ public class UserAPIVerticle extends BaseVerticle {
       if (ar.succeeded()) {
         context.response()
           .setStatusCode(status == 0 ? 200 : status)
-          .putHeader("content-type", "application/json")
-          .end(result.encodePrettily());
+          .putHeader(CONTENT_TYPE, APPLICATION_JSON)
+          .end(result.encode());
       } else {
-        internalError(context, ar.cause());
-        ar.cause().printStackTrace();
+        serviceError(context, ar.cause());
       }
     };
   }
@@ -163,12 +560,10 @@ public class UserAPIVerticle extends BaseVerticle {
   protected Handler<AsyncResult<Void>> deleteResultHandler(RoutingContext context) {
     return res -> {
       if (res.succeeded()) {
-        context.response().setStatusCode(204)
-          .putHeader("content-type", "application/json")
-          .end(new JsonObject().put("message", "delete_success").encodePrettily());
+        // a 204 has no body
+        context.response().setStatusCode(204).end();
       } else {
-        internalError(context, res.cause());
-        res.cause().printStackTrace();
+        serviceError(context, res.cause());
       }
     };
   }
@@ -181,34 +576,112 @@ public class UserAPIVerticle extends BaseVerticle {
           notFound(context);
         } else {
           context.response()
-            .putHeader("content-type", "application/json")
+            .putHeader(CONTENT_TYPE, APPLICATION_JSON)
             .end(res.toString());
         }
       } else {
-        internalError(context, ar.cause());
-        ar.cause().printStackTrace();
+        serviceError(context, ar.cause());
       }
     };
   }
 
+  /**
+   * Like {@link #resultHandlerNonEmpty(RoutingContext)}, with an ETag hashed from the response body, weak when the
+   * server compresses responses. A request whose If-None-Match matches it, by weak comparison, gets a 304 without body.
+   */
+  protected Handler<AsyncResult<JsonObject>> conditionalResultHandler(RoutingContext context) {
+    return ar -> {
+      if (ar.failed()) {
+        serviceError(context, ar.cause());
+      } else if (ar.result() == null) {
+        notFound(context);
+      } else {
+        Buffer body = Buffer.buffer(ar.result().encode());
+        String etag = etag(body, weakEtags);
+        HttpServerResponse response = context.response()
+          .putHeader(HttpHeaders.ETAG, etag)
+          .putHeader(HttpHeaders.CACHE_CONTROL, NO_CACHE);
+        if (matches(context.request().getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+          response.setStatusCode(304).end();
+        } else {
+          response.putHeader(CONTENT_TYPE, APPLICATION_JSON).end(body);
+        }
+      }
+    };
+  }
+
+  private static String etag(Buffer body, boolean weak) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(body.getBytes());
+      return (weak ? "W/\"" : "\"") + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + "\"";
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Weak comparison of RFC 7232, the one If-None-Match uses: tags match whether either is weak or not.
+   */
+  private static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    String opaque = opaque(etag);
+    for (String candidate : ifNoneMatch.split(",")) {
+      String trimmed = candidate.trim();
+      if (trimmed.equals("*") || opaque(trimmed).equals(opaque)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String opaque(String etag) {
+    return etag.startsWith("W/") ? etag.substring(2) : etag;
+  }
+
   // error handler api
 
+  protected void serviceError(RoutingContext context, Throwable ex) {
+    if (ex instanceof UserServiceException) {
+      context.response().setStatusCode(((UserServiceException) ex).failureCode())
+        .putHeader(CONTENT_TYPE, APPLICATION_JSON)
+        .end(new JsonObject().put("error", ex.getMessage()).encode());
+    } else {
+      logger.error("Unable to serve " + context.request().method() + " " + context.request().path(), ex);
+      internalError(context, ex);
+    }
+  }
+
   protected void internalError(RoutingContext context, Throwable ex) {
     context.response().setStatusCode(500)
-      .putHeader("content-type", "application/json")
-      .end(new JsonObject().put("error", ex.getMessage()).encodePrettily());
+      .putHeader(CONTENT_TYPE, APPLICATION_JSON)
+      .end(new JsonObject().put("error", ex.getMessage()).encode());
   }
 
   protected void badRequest(RoutingContext context, Throwable ex) {
     context.response().setStatusCode(400)
-      .putHeader("content-type", "application/json")
-      .end(new JsonObject().put("error", ex.getMessage()).encodePrettily());
+      .putHeader(CONTENT_TYPE, APPLICATION_JSON)
+      .end(new JsonObject().put("error", ex.getMessage()).encode());
+  }
+
+  protected void forbidden(RoutingContext context) {
+    context.response().setStatusCode(403)
+      .putHeader(CONTENT_TYPE, APPLICATION_JSON)
+      .end(FORBIDDEN);
+  }
+
+  protected void tooManyRequests(RoutingContext context, long retryAfterMillis) {
+    context.response().setStatusCode(429)
+      .putHeader(CONTENT_TYPE, APPLICATION_JSON)
+      .putHeader("Retry-After", String.valueOf((retryAfterMillis + 999) / 1000))
+      .end(TOO_MANY_REQUESTS);
   }
 
   protected void notFound(RoutingContext context) {
     context.response().setStatusCode(404)
-      .putHeader("content-type", "application/json")
-      .end(new JsonObject().put("message", "not_found").encodePrettily());
+      .putHeader(CONTENT_TYPE, APPLICATION_JSON)
+      .end(NOT_FOUND);
   }
 
 }
@@ -0,0 +1,61 @@
+package io.vertx.stackoverflow.user.api;
+
+import io.vertx.core.Verticle;
+import io.vertx.core.spi.VerticleFactory;
+import io.vertx.stackoverflow.user.UserService;
+import io.vertx.stackoverflow.user.health.UserHealthChecks;
+import io.vertx.stackoverflow.user.impl.UserSuggestIndex;
+import io.vertx.stackoverflow.user.metrics.MetricsRegistry;
+
+/**
+ * Verticle factory creating {@link UserAPIVerticle} instances bound to a single shared {@link UserService},
+ * so the REST verticle can be deployed with several instances (one per event loop) while all of them
+ * share the same service and Mongo connection pool.
+ */
+public class UserAPIVerticleFactory implements VerticleFactory {
+
+  public static final String PREFIX = "user-api";
+
+  private final UserService userService;
+  private final LoginRateLimiter loginRateLimiter;
+  private final MetricsRegistry metrics;
+  private final UserHealthChecks healthChecks;
+  private final ConcurrencyLimiter concurrencyLimiter;
+  private final UserSuggestIndex suggestIndex;
+
+  /**
+   * @param loginRateLimiter   limiter of login attempts shared by all the instances, {@code null} to disable it
+   * @param metrics            registry of the metrics shared by all the instances
+   * @param healthChecks       health and readiness checks of the node
+   * @param concurrencyLimiter limiter of the requests in flight shared by all the instances, {@code null} to disable it
+   * @param suggestIndex       autocompletion index of the users, {@code null} to not serve suggestions
+   */
+  public UserAPIVerticleFactory(UserService userService, LoginRateLimiter loginRateLimiter, MetricsRegistry metrics,
+                                UserHealthChecks healthChecks, ConcurrencyLimiter concurrencyLimiter,
+                                UserSuggestIndex suggestIndex) {
+    this.userService = userService;
+    this.loginRateLimiter = loginRateLimiter;
+    this.metrics = metrics;
+    this.healthChecks = healthChecks;
+    this.concurrencyLimiter = concurrencyLimiter;
+    this.suggestIndex = suggestIndex;
+  }
+
+  /**
+   * @return the verticle name to deploy through this factory
+   */
+  public static String verticleName() {
+    return PREFIX + ":" + UserAPIVerticle.class.getName();
+  }
+
+  @Override
+  public String prefix() {
+    return PREFIX;
+  }
+
+  @Override
+  public Verticle createVerticle(String verticleName, ClassLoader classLoader) throws Exception {
+    return new UserAPIVerticle(userService, loginRateLimiter, metrics, healthChecks, concurrencyLimiter,
+      suggestIndex);
+  }
+}
@@ -0,0 +1,60 @@
+package io.vertx.stackoverflow.user.api;
+
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.stackoverflow.user.UserService;
+
+/**
+ * Exports all the users as newline delimited JSON for one {@code GET /user?format=ndjson} request.
+ * <p>
+ * Users are read page by page in username order; the next page is only read once the previous one has been written
+ * and the response write queue has drained, so memory stays flat whatever the size of the collection.
+ */
+class UserExportHandler {
+
+  private final UserService userService;
+  private final HttpServerResponse response;
+  private final int pageSize;
+
+  private boolean closed;
+
+  UserExportHandler(UserService userService, HttpServerResponse response, int pageSize) {
+    this.userService = userService;
+    this.response = response;
+    this.pageSize = pageSize;
+  }
+
+  void start(String after) {
+    response.setChunked(true).putHeader("content-type", "application/x-ndjson");
+    response.closeHandler(v -> closed = true);
+    readPage(after);
+  }
+
+  private void readPage(String after) {
+    if (closed) {
+      return;
+    }
+    userService.listUsers(after, pageSize, ar -> {
+      if (ar.failed()) {
+        // the status is already sent, all we can do is cut the response short
+        response.close();
+        return;
+      }
+      JsonArray users = ar.result();
+      for (int i = 0; i < users.size(); i++) {
+        response.write(users.getJsonObject(i).encode() + "\n");
+      }
+      if (users.size() < pageSize) {
+        response.end();
+        return;
+      }
+      String last = users.getJsonObject(users.size() - 1).getString("username");
+      if (response.writeQueueFull()) {
+        response.drainHandler(v -> readPage(last));
+      } else {
+        readPage(last);
+      }
+    });
+  }
+}
@@ -0,0 +1,80 @@
+package io.vertx.stackoverflow.user.api;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import io.netty.buffer.ByteBufInputStream;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
+import io.vertx.stackoverflow.user.User;
+
+/**
+ * Streaming JSON decoding of a {@link User} from a request body {@link Buffer}, without the intermediate
+ * {@code JsonObject} and {@code Map} of {@code new User(context.getBodyAsJson())}.
+ */
+final class UserJsonDecoder {
+
+  private static final JsonFactory FACTORY = Json.mapper.getFactory();
+
+  private UserJsonDecoder() {
+  }
+
+  /**
+   * @return the decoded user, empty if the buffer is empty
+   * @throws DecodeException if the buffer isn't a JSON object
+   */
+  static User decode(Buffer buffer) {
+    User user = new User();
+    if (buffer == null || buffer.length() == 0) {
+      return user;
+    }
+    try (JsonParser parser = FACTORY.createParser(new ByteBufInputStream(buffer.getByteBuf()))) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new DecodeException("Expected a JSON object");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if (token.isStructStart()) {
+          parser.skipChildren();
+          continue;
+        }
+        if ("version".equals(field)) {
+          user.setVersion(token == JsonToken.VALUE_NUMBER_INT ? parser.getLongValue() : null);
+          continue;
+        }
+        String value = token == JsonToken.VALUE_STRING ? parser.getText() : null;
+        switch (field) {
+          case "username":
+            user.setUsername(value);
+            break;
+          case "password":
+            user.setPassword(value);
+            break;
+          case "email":
+            user.setEmail(value);
+            break;
+          case "firstName":
+            user.setFirstName(value);
+            break;
+          case "lastName":
+            user.setLastName(value);
+            break;
+          case "phone":
+            user.setPhone(value);
+            break;
+          default:
+            // unknown fields are ignored, like the generated converter does
+            break;
+        }
+      }
+      return user;
+    } catch (IOException e) {
+      throw new DecodeException("Failed to decode user: " + e.getMessage());
+    }
+  }
+}
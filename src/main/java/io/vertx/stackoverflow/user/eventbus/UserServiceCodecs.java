@@ -0,0 +1,244 @@
+package io.vertx.stackoverflow.user.eventbus;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.stackoverflow.user.User;
+
+/**
+ * Message codecs of the {@link io.vertx.stackoverflow.user.UserService} event bus messages.
+ * <p>
+ * Within the JVM the codecs hand over the very instance that was sent, with no encoding nor copy, so a sender must not
+ * modify a body once sent. Across the cluster users are written as length prefixed UTF-8 fields, without the field
+ * names and quoting of JSON, and JSON bodies as UTF-8 text.
+ */
+public final class UserServiceCodecs {
+
+  public static final String USER = "user-service.user";
+  public static final String USERS = "user-service.users";
+  public static final String JSON_OBJECT = "user-service.json-object";
+  public static final String JSON_ARRAY = "user-service.json-array";
+
+  private UserServiceCodecs() {
+  }
+
+  /**
+   * Register the codecs on the event bus, if not done yet.
+   */
+  public static void register(Vertx vertx) {
+    register(vertx, new UserCodec());
+    register(vertx, new UsersCodec());
+    register(vertx, new JsonObjectCodec());
+    register(vertx, new JsonArrayCodec());
+  }
+
+  private static void register(Vertx vertx, MessageCodec<?, ?> codec) {
+    try {
+      vertx.eventBus().registerCodec(codec);
+    } catch (IllegalStateException e) {
+      // already registered by another service proxy or handler of this Vert.x instance
+    }
+  }
+
+  private static void writeString(Buffer buffer, String value) {
+    if (value == null) {
+      buffer.appendInt(-1);
+    } else {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      buffer.appendInt(bytes.length).appendBytes(bytes);
+    }
+  }
+
+  private static void writeUser(Buffer buffer, User user) {
+    writeString(buffer, user.getUsername());
+    writeString(buffer, user.getPassword());
+    writeString(buffer, user.getEmail());
+    writeString(buffer, user.getFirstName());
+    writeString(buffer, user.getLastName());
+    writeString(buffer, user.getPhone());
+    buffer.appendLong(user.getVersion() == null ? -1 : user.getVersion());
+  }
+
+  /**
+   * Sequential reader of a wire buffer.
+   */
+  private static final class Reader {
+    private final Buffer buffer;
+    private int pos;
+
+    private Reader(Buffer buffer, int pos) {
+      this.buffer = buffer;
+      this.pos = pos;
+    }
+
+    private int readInt() {
+      int value = buffer.getInt(pos);
+      pos += 4;
+      return value;
+    }
+
+    private long readLong() {
+      long value = buffer.getLong(pos);
+      pos += 8;
+      return value;
+    }
+
+    private String readString() {
+      int length = readInt();
+      if (length < 0) {
+        return null;
+      }
+      String value = buffer.getString(pos, pos + length, "UTF-8");
+      pos += length;
+      return value;
+    }
+
+    private User readUser() {
+      User user = new User();
+      user.setUsername(readString());
+      user.setPassword(readString());
+      user.setEmail(readString());
+      user.setFirstName(readString());
+      user.setLastName(readString());
+      user.setPhone(readString());
+      long version = readLong();
+      user.setVersion(version < 0 ? null : version);
+      return user;
+    }
+  }
+
+  static final class UserCodec implements MessageCodec<User, User> {
+
+    @Override
+    public void encodeToWire(Buffer buffer, User user) {
+      buffer.appendByte((byte) (user == null ? 0 : 1));
+      if (user != null) {
+        writeUser(buffer, user);
+      }
+    }
+
+    @Override
+    public User decodeFromWire(int pos, Buffer buffer) {
+      return buffer.getByte(pos) == 0 ? null : new Reader(buffer, pos + 1).readUser();
+    }
+
+    @Override
+    public User transform(User user) {
+      return user;
+    }
+
+    @Override
+    public String name() {
+      return USER;
+    }
+
+    @Override
+    public byte systemCodecID() {
+      return -1;
+    }
+  }
+
+  static final class UsersCodec implements MessageCodec<List<User>, List<User>> {
+
+    @Override
+    public void encodeToWire(Buffer buffer, List<User> users) {
+      buffer.appendInt(users == null ? -1 : users.size());
+      if (users != null) {
+        users.forEach(user -> writeUser(buffer, user));
+      }
+    }
+
+    @Override
+    public List<User> decodeFromWire(int pos, Buffer buffer) {
+      Reader reader = new Reader(buffer, pos);
+      int size = reader.readInt();
+      if (size < 0) {
+        return null;
+      }
+      List<User> users = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        users.add(reader.readUser());
+      }
+      return users;
+    }
+
+    @Override
+    public List<User> transform(List<User> users) {
+      return users;
+    }
+
+    @Override
+    public String name() {
+      return USERS;
+    }
+
+    @Override
+    public byte systemCodecID() {
+      return -1;
+    }
+  }
+
+  static final class JsonObjectCodec implements MessageCodec<JsonObject, JsonObject> {
+
+    @Override
+    public void encodeToWire(Buffer buffer, JsonObject json) {
+      writeString(buffer, json == null ? null : json.encode());
+    }
+
+    @Override
+    public JsonObject decodeFromWire(int pos, Buffer buffer) {
+      String json = new Reader(buffer, pos).readString();
+      return json == null ? null : new JsonObject(json);
+    }
+
+    @Override
+    public JsonObject transform(JsonObject json) {
+      return json;
+    }
+
+    @Override
+    public String name() {
+      return JSON_OBJECT;
+    }
+
+    @Override
+    public byte systemCodecID() {
+      return -1;
+    }
+  }
+
+  static final class JsonArrayCodec implements MessageCodec<JsonArray, JsonArray> {
+
+    @Override
+    public void encodeToWire(Buffer buffer, JsonArray json) {
+      writeString(buffer, json == null ? null : json.encode());
+    }
+
+    @Override
+    public JsonArray decodeFromWire(int pos, Buffer buffer) {
+      String json = new Reader(buffer, pos).readString();
+      return json == null ? null : new JsonArray(json);
+    }
+
+    @Override
+    public JsonArray transform(JsonArray json) {
+      return json;
+    }
+
+    @Override
+    public String name() {
+      return JSON_ARRAY;
+    }
+
+    @Override
+    public byte systemCodecID() {
+      return -1;
+    }
+  }
+}
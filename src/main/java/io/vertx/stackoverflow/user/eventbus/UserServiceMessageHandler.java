@@ -0,0 +1,142 @@
+package io.vertx.stackoverflow.user.eventbus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.stackoverflow.user.User;
+import io.vertx.stackoverflow.user.UserService;
+import io.vertx.stackoverflow.user.UserServiceException;
+
+/**
+ * Serves the {@link UserService} calls sent on the event bus by {@link UserServiceProxy}.
+ * <p>
+ * The method is named by the {@code action} header, a failure is answered with the {@link UserServiceException}
+ * failure code, 400 for a malformed message and 500 for any other error.
+ */
+public class UserServiceMessageHandler implements Handler<Message<Object>> {
+
+  static final String ACTION = "action";
+  static final String USERNAME = "username";
+  static final String AFTER = "after";
+  static final String LIMIT = "limit";
+  // node local address, so in-process callers are never routed to another node
+  static final String LOCAL_SUFFIX = ".local";
+
+  private static final Logger logger = LoggerFactory.getLogger(UserServiceMessageHandler.class);
+
+  private static final DeliveryOptions JSON_OBJECT_REPLY = new DeliveryOptions()
+    .setCodecName(UserServiceCodecs.JSON_OBJECT);
+  private static final DeliveryOptions JSON_ARRAY_REPLY = new DeliveryOptions()
+    .setCodecName(UserServiceCodecs.JSON_ARRAY);
+
+  private final UserService service;
+
+  public UserServiceMessageHandler(UserService service) {
+    this.service = service;
+  }
+
+  /**
+   * Serve the service on the given address for the whole cluster, and on its local address for this node only.
+   *
+   * @return the consumers, to unregister them
+   */
+  public static List<MessageConsumer<Object>> register(Vertx vertx, UserService service, String address) {
+    UserServiceCodecs.register(vertx);
+    UserServiceMessageHandler handler = new UserServiceMessageHandler(service);
+    List<MessageConsumer<Object>> consumers = new ArrayList<>(2);
+    consumers.add(vertx.eventBus().consumer(address, handler));
+    consumers.add(vertx.eventBus().localConsumer(address + LOCAL_SUFFIX, handler));
+    return consumers;
+  }
+
+  @Override
+  public void handle(Message<Object> message) {
+    String action = message.headers().get(ACTION);
+    if (action == null) {
+      message.fail(400, "Missing action header");
+      return;
+    }
+    try {
+      switch (action) {
+        case "addUser":
+          service.addUser((User) message.body(), reply(message, JSON_OBJECT_REPLY));
+          break;
+        case "addUsers":
+          @SuppressWarnings("unchecked")
+          List<User> users = (List<User>) message.body();
+          service.addUsers(users, reply(message, JSON_ARRAY_REPLY));
+          break;
+        case "listUsers":
+          service.listUsers(message.headers().get(AFTER), Integer.parseInt(message.headers().get(LIMIT)),
+            reply(message, JSON_ARRAY_REPLY));
+          break;
+        case "deleteUser":
+          service.deleteUser((String) message.body(), reply(message, null));
+          break;
+        case "retrieveUser":
+          service.retrieveUser((String) message.body(), reply(message, JSON_OBJECT_REPLY));
+          break;
+        case "retrieveUsers":
+          @SuppressWarnings("unchecked")
+          List<String> usernames = ((JsonArray) message.body()).getList();
+          service.retrieveUsers(usernames, reply(message, JSON_ARRAY_REPLY));
+          break;
+        case "loginUser":
+          User credentials = (User) message.body();
+          service.loginUser(credentials.getUsername(), credentials.getPassword(),
+            reply(message, JSON_OBJECT_REPLY));
+          break;
+        case "logoutUser":
+          service.logoutUser((String) message.body(), reply(message, null));
+          break;
+        case "updateUser":
+          service.updateUser(message.headers().get(USERNAME), (User) message.body(), reply(message, null));
+          break;
+        case "patchUser":
+          service.patchUser(message.headers().get(USERNAME), (User) message.body(), reply(message, null));
+          break;
+        case "authenticate":
+          service.authenticate((String) message.body(), reply(message, JSON_OBJECT_REPLY));
+          break;
+        default:
+          message.fail(400, "Unknown action " + action);
+      }
+    } catch (ClassCastException | NumberFormatException | NullPointerException e) {
+      // a malformed message would otherwise never be answered and its caller would wait for the timeout
+      message.fail(400, "Invalid " + action + " message: " + e);
+    } catch (RuntimeException e) {
+      logger.error("User service call " + action + " failed", e);
+      message.fail(500, String.valueOf(e.getMessage()));
+    }
+  }
+
+  /**
+   * @param options delivery options of the result, {@code null} for the results without a body
+   */
+  private static <T> Handler<AsyncResult<T>> reply(Message<Object> message, DeliveryOptions options) {
+    return asyncResult -> {
+      if (asyncResult.succeeded()) {
+        if (options == null) {
+          message.reply(null);
+        } else {
+          message.reply(asyncResult.result(), options);
+        }
+      } else if (asyncResult.cause() instanceof UserServiceException) {
+        UserServiceException failure = (UserServiceException) asyncResult.cause();
+        message.fail(failure.failureCode(), failure.getMessage());
+      } else {
+        logger.error("User service call " + message.headers().get(ACTION) + " failed", asyncResult.cause());
+        message.fail(500, String.valueOf(asyncResult.cause().getMessage()));
+      }
+    };
+  }
+}
@@ -0,0 +1,157 @@
+package io.vertx.stackoverflow.user.eventbus;
+
+import java.util.List;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.stackoverflow.user.User;
+import io.vertx.stackoverflow.user.UserService;
+import io.vertx.stackoverflow.user.UserServiceException;
+
+/**
+ * {@link UserService} calling the service served by {@link UserServiceMessageHandler} over the event bus, for the
+ * verticles that would otherwise go through the REST API.
+ * <p>
+ * Users and results are handed over by reference within the JVM, see {@link UserServiceCodecs}: a user must not be
+ * modified once passed to the proxy. Failures are {@link UserServiceException}s, with
+ * {@link UserServiceException#SERVICE_UNAVAILABLE} when the service can't be reached or doesn't answer in time.
+ */
+public class UserServiceProxy implements UserService {
+
+  private final Vertx vertx;
+  private final String address;
+  private final long sendTimeout;
+
+  /**
+   * @param address address of the service, reaching any node of the cluster
+   */
+  public UserServiceProxy(Vertx vertx, String address) {
+    this(vertx, address, DeliveryOptions.DEFAULT_TIMEOUT);
+  }
+
+  /**
+   * @param address     address of the service, reaching any node of the cluster
+   * @param sendTimeout time in milliseconds after which a call fails
+   */
+  public UserServiceProxy(Vertx vertx, String address, long sendTimeout) {
+    this.vertx = vertx;
+    this.address = address;
+    this.sendTimeout = sendTimeout;
+    UserServiceCodecs.register(vertx);
+  }
+
+  /**
+   * @return a proxy of the service served by this node only, calls never leave the JVM
+   */
+  public static UserServiceProxy local(Vertx vertx, String address) {
+    return new UserServiceProxy(vertx, address + UserServiceMessageHandler.LOCAL_SUFFIX);
+  }
+
+  @Override
+  public void addUser(User user, Handler<AsyncResult<JsonObject>> resultHandler) {
+    send(user, options("addUser", UserServiceCodecs.USER), resultHandler);
+  }
+
+  @Override
+  public void addUsers(List<User> users, Handler<AsyncResult<JsonArray>> resultHandler) {
+    send(users, options("addUsers", UserServiceCodecs.USERS), resultHandler);
+  }
+
+  @Override
+  public void listUsers(String after, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    DeliveryOptions options = options("listUsers", null)
+      .addHeader(UserServiceMessageHandler.LIMIT, Integer.toString(limit));
+    if (after != null) {
+      options.addHeader(UserServiceMessageHandler.AFTER, after);
+    }
+    send(null, options, resultHandler);
+  }
+
+  @Override
+  public void deleteUser(String username, Handler<AsyncResult<Void>> resultHandler) {
+    send(username, options("deleteUser", null), resultHandler);
+  }
+
+  @Override
+  public void retrieveUser(String username, Handler<AsyncResult<JsonObject>> resultHandler) {
+    send(username, options("retrieveUser", null), resultHandler);
+  }
+
+  @Override
+  public void retrieveUsers(List<String> usernames, Handler<AsyncResult<JsonArray>> resultHandler) {
+    send(new JsonArray(usernames), options("retrieveUsers", UserServiceCodecs.JSON_ARRAY), resultHandler);
+  }
+
+  @Override
+  public void loginUser(String username, String password, Handler<AsyncResult<JsonObject>> resultHandler) {
+    User credentials = new User();
+    credentials.setUsername(username);
+    credentials.setPassword(password);
+    send(credentials, options("loginUser", UserServiceCodecs.USER), resultHandler);
+  }
+
+  @Override
+  public void logoutUser(String token, Handler<AsyncResult<Void>> resultHandler) {
+    send(token, options("logoutUser", null), resultHandler);
+  }
+
+  @Override
+  public void updateUser(String username, User user, Handler<AsyncResult<Void>> resultHandler) {
+    send(user, options("updateUser", UserServiceCodecs.USER).addHeader(UserServiceMessageHandler.USERNAME, username),
+      resultHandler);
+  }
+
+  @Override
+  public void patchUser(String username, User changes, Handler<AsyncResult<Void>> resultHandler) {
+    send(changes, options("patchUser", UserServiceCodecs.USER).addHeader(UserServiceMessageHandler.USERNAME, username),
+      resultHandler);
+  }
+
+  @Override
+  public void authenticate(String token, Handler<AsyncResult<JsonObject>> resultHandler) {
+    send(token, options("authenticate", null), resultHandler);
+  }
+
+  /**
+   * @param codecName codec of the body, {@code null} for the bodies the event bus has a codec for
+   */
+  private DeliveryOptions options(String action, String codecName) {
+    DeliveryOptions options = new DeliveryOptions()
+      .setSendTimeout(sendTimeout)
+      .addHeader(UserServiceMessageHandler.ACTION, action);
+    if (codecName != null) {
+      options.setCodecName(codecName);
+    }
+    return options;
+  }
+
+  private <T> void send(Object body, DeliveryOptions options, Handler<AsyncResult<T>> resultHandler) {
+    vertx.eventBus().<T>send(address, body, options, asyncResult -> {
+      if (asyncResult.succeeded()) {
+        resultHandler.handle(Future.succeededFuture(asyncResult.result().body()));
+      } else {
+        resultHandler.handle(Future.failedFuture(failure(asyncResult.cause())));
+      }
+    });
+  }
+
+  private static Throwable failure(Throwable cause) {
+    if (!(cause instanceof ReplyException)) {
+      return cause;
+    }
+    ReplyException reply = (ReplyException) cause;
+    if (reply.failureType() == ReplyFailure.RECIPIENT_FAILURE) {
+      return new UserServiceException(reply.failureCode(), reply.getMessage());
+    }
+    // nobody serving the address, or no answer in time
+    return new UserServiceException(UserServiceException.SERVICE_UNAVAILABLE,
+      "User service unavailable: " + reply.failureType());
+  }
+}
@@ -0,0 +1,280 @@
+package io.vertx.stackoverflow.user.events;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.stackoverflow.user.metrics.LatencyTimer;
+import io.vertx.stackoverflow.user.metrics.MetricsRegistry;
+
+/**
+ * Publishes events to a RabbitMQ topic exchange, off the request path.
+ * <p>
+ * {@link #publish} only appends the event to a bounded in-memory outbox. The outbox is drained in batches of up to
+ * {@code batch-size} events, or whatever is there {@code batch-delay} milliseconds after the first event, and a batch
+ * is only dropped from the outbox once the broker has confirmed all of it. A batch that fails is put back and retried
+ * after {@code retry-delay}, so delivery is at least once: consumers dedupe on the {@code id} of the events. Nothing is
+ * published until then, however many events come in meanwhile.
+ * <p>
+ * When the outbox is full, e.g. while the broker is down, the {@code spill-policy} drops either the oldest events
+ * ({@code drop-oldest}) or the new ones ({@code drop-newest}).
+ * <p>
+ * Publishing blocks, so it runs on a single thread worker of its own. The Vert.x RabbitMQ client of this version has
+ * no publisher confirms, hence the direct use of the AMQP client channel.
+ */
+public class UserEventPublisher {
+
+  private static final Logger logger = LoggerFactory.getLogger(UserEventPublisher.class);
+
+  private final Vertx vertx;
+  private final WorkerExecutor worker;
+  private final ConnectionFactory connectionFactory;
+  private final String exchange;
+  private final int capacity;
+  private final int batchSize;
+  private final long batchDelay;
+  private final long retryDelay;
+  private final long confirmTimeout;
+  private final boolean dropOldest;
+
+  private final LongAdder published = new LongAdder();
+  private final LongAdder spilled = new LongAdder();
+  private final LongAdder failedBatches = new LongAdder();
+  private final LatencyTimer confirmTimer;
+
+  // guarded by this
+  private final ArrayDeque<JsonObject> outbox = new ArrayDeque<>();
+  private boolean flushing;
+  // waiting for the retry of a failed batch
+  private boolean retrying;
+  private long flushTimer = -1;
+
+  // confined to the worker
+  private Connection connection;
+  private Channel channel;
+
+  public UserEventPublisher(Vertx vertx, JsonObject config, MetricsRegistry metrics) {
+    this(vertx, config, metrics, connectionFactory(config));
+  }
+
+  /**
+   * @param connectionFactory factory of the connections to the broker, e.g. a stand-in of it
+   */
+  UserEventPublisher(Vertx vertx, JsonObject config, MetricsRegistry metrics, ConnectionFactory connectionFactory) {
+    this.vertx = vertx;
+    this.worker = vertx.createSharedWorkerExecutor("user-events", 1);
+    this.exchange = config.getString("exchange", "user.events");
+    this.capacity = config.getInteger("outbox-size", 10000);
+    this.batchSize = config.getInteger("batch-size", 100);
+    this.batchDelay = config.getLong("batch-delay", 50L);
+    this.retryDelay = config.getLong("retry-delay", 5000L);
+    this.confirmTimeout = config.getLong("confirm-timeout", 5000L);
+    String spillPolicy = config.getString("spill-policy", "drop-oldest");
+    if (!"drop-oldest".equals(spillPolicy) && !"drop-newest".equals(spillPolicy)) {
+      throw new IllegalArgumentException("Unknown spill policy " + spillPolicy);
+    }
+    this.dropOldest = "drop-oldest".equals(spillPolicy);
+    this.connectionFactory = connectionFactory;
+
+    this.confirmTimer = metrics.timer("user_events_batch", "", "event batches published and confirmed");
+    metrics.gauge("user_events_outbox", "", "Events waiting to be published", this::outboxSize);
+    metrics.counter("user_events_published_total", "", "Events confirmed by the broker", published::sum);
+    metrics.counter("user_events_spilled_total", "", "Events dropped by the full outbox", spilled::sum);
+    metrics.counter("user_events_failed_batches_total", "", "Event batches that failed and are retried",
+      failedBatches::sum);
+  }
+
+  /**
+   * Queue an event, routed by its {@code type}.
+   */
+  public void publish(JsonObject event) {
+    boolean flushNow;
+    synchronized (this) {
+      if (outbox.size() >= capacity) {
+        spilled.increment();
+        if (!dropOldest) {
+          return;
+        }
+        outbox.pollFirst();
+      }
+      outbox.addLast(event);
+      flushNow = !flushing && !retrying && outbox.size() >= batchSize;
+      if (!flushNow && !flushing && !retrying && flushTimer == -1) {
+        flushTimer = vertx.setTimer(batchDelay, id -> onFlushTimer());
+      }
+    }
+    if (flushNow) {
+      flush();
+    }
+  }
+
+  /**
+   * Stop publishing, the events still in the outbox are lost.
+   */
+  public void close() {
+    synchronized (this) {
+      if (flushTimer != -1) {
+        vertx.cancelTimer(flushTimer);
+        flushTimer = -1;
+      }
+    }
+    worker.<Void>executeBlocking(future -> {
+      closeConnection();
+      future.complete();
+    }, asyncResult -> worker.close());
+  }
+
+  public synchronized int outboxSize() {
+    return outbox.size();
+  }
+
+  private static ConnectionFactory connectionFactory(JsonObject config) {
+    ConnectionFactory connectionFactory = new ConnectionFactory();
+    try {
+      connectionFactory.setUri(config.getString("uri", "amqp://localhost:5672"));
+    } catch (Exception e) {
+      throw new IllegalArgumentException("Invalid RabbitMQ uri", e);
+    }
+    connectionFactory.setConnectionTimeout(config.getInteger("connection-timeout", 5000));
+    // reconnection is handled by the retries of the failed batches
+    connectionFactory.setAutomaticRecoveryEnabled(false);
+    return connectionFactory;
+  }
+
+  private void onFlushTimer() {
+    synchronized (this) {
+      flushTimer = -1;
+      retrying = false;
+    }
+    flush();
+  }
+
+  private void flush() {
+    List<JsonObject> batch;
+    synchronized (this) {
+      if (flushing || retrying || outbox.isEmpty()) {
+        return;
+      }
+      flushing = true;
+      if (flushTimer != -1) {
+        vertx.cancelTimer(flushTimer);
+        flushTimer = -1;
+      }
+      batch = new ArrayList<>(Math.min(batchSize, outbox.size()));
+      while (batch.size() < batchSize && !outbox.isEmpty()) {
+        batch.add(outbox.pollFirst());
+      }
+    }
+
+    long start = confirmTimer.begin();
+    worker.<Void>executeBlocking(future -> {
+      try {
+        publishBatch(batch);
+        future.complete();
+      } catch (Exception e) {
+        future.fail(e);
+      }
+    }, asyncResult -> {
+      confirmTimer.end(start);
+      boolean more;
+      synchronized (this) {
+        flushing = false;
+        if (asyncResult.failed()) {
+          failedBatches.increment();
+          logger.warn("Unable to publish " + batch.size() + " user events, retrying in " + retryDelay + " ms",
+            asyncResult.cause());
+          requeue(batch);
+          retrying = true;
+          flushTimer = vertx.setTimer(retryDelay, id -> onFlushTimer());
+          return;
+        }
+        published.add(batch.size());
+        more = outbox.size() >= batchSize;
+        if (!more && !outbox.isEmpty() && flushTimer == -1) {
+          flushTimer = vertx.setTimer(batchDelay, id -> onFlushTimer());
+        }
+      }
+      if (more) {
+        flush();
+      }
+    });
+  }
+
+  /**
+   * Put a failed batch back in front of the outbox, as far as the spill policy lets it.
+   */
+  private void requeue(List<JsonObject> batch) {
+    for (int i = batch.size() - 1; i >= 0; i--) {
+      if (outbox.size() >= capacity) {
+        if (dropOldest) {
+          // the rest of the batch is older than anything in the outbox
+          spilled.add(i + 1);
+          return;
+        }
+        outbox.pollLast();
+        spilled.increment();
+      }
+      outbox.addFirst(batch.get(i));
+    }
+  }
+
+  private void publishBatch(List<JsonObject> batch) throws IOException, TimeoutException, InterruptedException {
+    Channel channel = channel();
+    try {
+      for (JsonObject event : batch) {
+        AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+          .contentType("application/json")
+          .deliveryMode(2)
+          .messageId(event.getString("id"))
+          .timestamp(new Date(event.getLong("timestamp")))
+          .build();
+        channel.basicPublish(exchange, event.getString("type"), properties,
+          event.encode().getBytes(StandardCharsets.UTF_8));
+      }
+      channel.waitForConfirmsOrDie(confirmTimeout);
+    } catch (IOException | TimeoutException e) {
+      // start over with a new channel, the state of this one is unknown
+      closeConnection();
+      throw e;
+    }
+  }
+
+  private Channel channel() throws IOException, TimeoutException {
+    if (channel == null || !channel.isOpen()) {
+      if (connection == null || !connection.isOpen()) {
+        connection = connectionFactory.newConnection("user-service");
+      }
+      channel = connection.createChannel();
+      channel.confirmSelect();
+      channel.exchangeDeclare(exchange, "topic", true);
+    }
+    return channel;
+  }
+
+  private void closeConnection() {
+    if (connection != null) {
+      try {
+        connection.close();
+      } catch (Exception e) {
+        logger.debug("Unable to close the RabbitMQ connection", e);
+      }
+    }
+    connection = null;
+    channel = null;
+  }
+}
@@ -0,0 +1,184 @@
+package io.vertx.stackoverflow.user.health;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+import io.vertx.circuitbreaker.CircuitBreaker;
+import io.vertx.circuitbreaker.CircuitBreakerState;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.healthchecks.HealthChecks;
+import io.vertx.ext.healthchecks.Status;
+import io.vertx.stackoverflow.user.metrics.EventLoopLagProbe;
+
+/**
+ * Health and readiness checks of a node, shared by all the REST verticle instances.
+ *
+ * Mongo is pinged periodically and the checks only read the outcome of the last ping, so probes put no load on Mongo.
+ * Health fails when an event loop is blocked or the workers can't keep up. Readiness uses the same checks with lower
+ * thresholds, so a node stops being ready as soon as it is overloaded and load balancers shed its traffic before
+ * requests start to time out.
+ * <p>
+ * Mongo being unreachable and an open circuit breaker only fail readiness: the node can't serve most requests, but
+ * restarting it won't help, and restarting every node during a Mongo outage would only make it worse.
+ */
+public class UserHealthChecks {
+
+  private final Vertx vertx;
+  private final Consumer<Handler<AsyncResult<Void>>> ping;
+  private final IntSupplier workerQueueDepth;
+  private final List<EventLoopLagProbe> eventLoops = new CopyOnWriteArrayList<>();
+  private final long pingInterval;
+  private final long pingTimeout;
+  private final long pingMaxAge;
+  private final HealthChecks health;
+  private final HealthChecks readiness;
+
+  private volatile long lastPingSucceeded;
+  private volatile String lastPingFailure = "not pinged yet";
+  private boolean pinging;
+  private long pingTimer = -1;
+
+  /**
+   * @param ping             procedure pinging Mongo
+   * @param workerQueueDepth number of tasks waiting for a worker thread
+   */
+  public UserHealthChecks(Vertx vertx, JsonObject config, Consumer<Handler<AsyncResult<Void>>> ping,
+                          IntSupplier workerQueueDepth) {
+    this.vertx = vertx;
+    this.ping = ping;
+    this.workerQueueDepth = workerQueueDepth;
+    this.pingInterval = config.getLong("ping-interval", 5000L);
+    this.pingTimeout = config.getLong("ping-timeout", 2000L);
+    this.pingMaxAge = config.getLong("ping-max-age", 15000L);
+
+    long blockedEventLoop = TimeUnit.MILLISECONDS.toNanos(config.getLong("health-max-event-loop-lag", 5000L));
+    long laggingEventLoop = TimeUnit.MILLISECONDS.toNanos(config.getLong("ready-max-event-loop-lag", 200L));
+    int fullWorkerQueue = config.getInteger("health-max-worker-queue", Integer.MAX_VALUE);
+    int busyWorkerQueue = config.getInteger("ready-max-worker-queue", 500);
+
+    this.health = HealthChecks.create(vertx)
+      .register("event-loops", future -> checkEventLoops(future, blockedEventLoop))
+      .register("workers", future -> checkWorkers(future, fullWorkerQueue));
+    this.readiness = HealthChecks.create(vertx)
+      .register("mongo", this::checkMongo)
+      .register("event-loops", future -> checkEventLoops(future, laggingEventLoop))
+      .register("workers", future -> checkWorkers(future, busyWorkerQueue));
+  }
+
+  /**
+   * Start pinging Mongo, from the calling context.
+   */
+  public void start() {
+    ping();
+    pingTimer = vertx.setPeriodic(pingInterval, id -> ping());
+  }
+
+  public void stop() {
+    if (pingTimer != -1) {
+      vertx.cancelTimer(pingTimer);
+    }
+  }
+
+  /**
+   * @return the checks failing when the node should be restarted
+   */
+  public HealthChecks health() {
+    return health;
+  }
+
+  /**
+   * @return the checks failing when the node should not receive traffic
+   */
+  public HealthChecks readiness() {
+    return readiness;
+  }
+
+  /**
+   * Report the state of a circuit breaker.
+   */
+  public void addCircuitBreaker(CircuitBreaker breaker) {
+    health.register("circuit-breaker", future -> checkCircuitBreaker(future, breaker, false));
+    readiness.register("circuit-breaker", future -> checkCircuitBreaker(future, breaker, true));
+  }
+
+  public void addEventLoop(EventLoopLagProbe probe) {
+    eventLoops.add(probe);
+  }
+
+  public void removeEventLoop(EventLoopLagProbe probe) {
+    eventLoops.remove(probe);
+  }
+
+  private void ping() {
+    if (pinging) {
+      return;
+    }
+    pinging = true;
+    AtomicBoolean done = new AtomicBoolean();
+    long timeout = vertx.setTimer(pingTimeout, id -> {
+      if (done.compareAndSet(false, true)) {
+        pinging = false;
+        lastPingFailure = "Ping timed out after " + pingTimeout + " ms";
+      }
+    });
+    ping.accept(asyncResult -> {
+      if (done.compareAndSet(false, true)) {
+        vertx.cancelTimer(timeout);
+        pinging = false;
+        if (asyncResult.succeeded()) {
+          lastPingSucceeded = System.currentTimeMillis();
+          lastPingFailure = null;
+        } else {
+          lastPingFailure = asyncResult.cause().getMessage();
+        }
+      }
+    });
+  }
+
+  private void checkMongo(Future<Status> future) {
+    String failure = lastPingFailure;
+    long age = System.currentTimeMillis() - lastPingSucceeded;
+    JsonObject data = new JsonObject().put("last-ping-age-ms", lastPingSucceeded == 0 ? null : age);
+    if (failure != null) {
+      future.complete(Status.KO(data.put("error", failure)));
+    } else if (age > pingMaxAge) {
+      future.complete(Status.KO(data.put("error", "No successful ping for " + age + " ms")));
+    } else {
+      future.complete(Status.OK(data));
+    }
+  }
+
+  private void checkEventLoops(Future<Status> future, long maxLagNanos) {
+    long maxLag = 0;
+    for (EventLoopLagProbe probe : eventLoops) {
+      maxLag = Math.max(maxLag, probe.currentLagNanos());
+    }
+    JsonObject data = new JsonObject()
+      .put("event-loops", eventLoops.size())
+      .put("max-lag-ms", TimeUnit.NANOSECONDS.toMillis(maxLag));
+    future.complete(maxLag > maxLagNanos ? Status.KO(data) : Status.OK(data));
+  }
+
+  private void checkCircuitBreaker(Future<Status> future, CircuitBreaker breaker, boolean failWhenOpen) {
+    CircuitBreakerState state = breaker.state();
+    JsonObject data = new JsonObject()
+      .put("name", breaker.name())
+      .put("state", state.name())
+      .put("failures", breaker.failureCount());
+    future.complete(failWhenOpen && state == CircuitBreakerState.OPEN ? Status.KO(data) : Status.OK(data));
+  }
+
+  private void checkWorkers(Future<Status> future, int maxQueued) {
+    int queued = workerQueueDepth.getAsInt();
+    JsonObject data = new JsonObject().put("queued", queued);
+    future.complete(queued > maxQueued ? Status.KO(data) : Status.OK(data));
+  }
+}
@@ -0,0 +1,31 @@
+package io.vertx.stackoverflow.user.impl;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.stackoverflow.user.User;
+import io.vertx.stackoverflow.user.UserService;
+
+/**
+ * Reading of the results of {@link UserService#addUsers}, for the services acting on the users created.
+ */
+final class AddUsersResults {
+
+  private static final Integer CREATED = 201;
+
+  private AddUsersResults() {
+  }
+
+  /**
+   * Call the action with each user created, the results being in the order of the users. A result without a status
+   * isn't a creation.
+   */
+  static void forEachCreated(List<User> users, JsonArray results, Consumer<User> action) {
+    for (int i = 0; i < results.size() && i < users.size(); i++) {
+      if (CREATED.equals(results.getJsonObject(i).getInteger("status"))) {
+        action.accept(users.get(i));
+      }
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package io.vertx.stackoverflow.user.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.stackoverflow.user.User;
+import io.vertx.stackoverflow.user.UserService;
+
+/**
+ * Coalesces concurrent {@link #retrieveUser} calls into a single {@link UserService#retrieveUsers} query on
+ * the delegate.
+ * <p>
+ * Lookups are collected for {@code window} milliseconds after the first one, or until {@code max-batch-size} distinct
+ * usernames are pending. Lookups of the same username in a batch share the same query result. Each caller is called
+ * back on its own context.
+ */
+public class BatchingUserService implements UserService {
+
+  private final Vertx vertx;
+  private final UserService delegate;
+  private final long window;
+  private final int maxBatchSize;
+
+  private Map<String, List<Waiter>> pending = new LinkedHashMap<>();
+  private boolean flushScheduled;
+
+  public BatchingUserService(Vertx vertx, UserService delegate, JsonObject config) {
+    this.vertx = vertx;
+    this.delegate = delegate;
+    this.window = config.getLong("window", 1L);
+    this.maxBatchSize = config.getInteger("max-batch-size", 100);
+  }
+
+  @Override
+  public void retrieveUser(String username, Handler<AsyncResult<JsonObject>> resultHandler) {
+    Map<String, List<Waiter>> batch = null;
+    boolean schedule = false;
+    synchronized (this) {
+      pending.computeIfAbsent(username, k -> new ArrayList<>(1))
+        .add(new Waiter(vertx.getOrCreateContext(), resultHandler));
+      if (pending.size() >= maxBatchSize) {
+        batch = pending;
+        pending = new LinkedHashMap<>();
+      } else if (!flushScheduled) {
+        flushScheduled = true;
+        schedule = true;
+      }
+    }
+    if (batch != null) {
+      execute(batch);
+    } else if (schedule) {
+      vertx.setTimer(window, id -> flush());
+    }
+  }
+
+  private void flush() {
+    Map<String, List<Waiter>> batch;
+    synchronized (this) {
+      batch = pending;
+      pending = new LinkedHashMap<>();
+      flushScheduled = false;
+    }
+    if (!batch.isEmpty()) {
+      execute(batch);
+    }
+  }
+
+  private void execute(Map<String, List<Waiter>> batch) {
+    delegate.retrieveUsers(new ArrayList<>(batch.keySet()), ar -> {
+      if (ar.failed()) {
+        batch.values().forEach(waiters -> waiters.forEach(waiter -> waiter.complete(Future.failedFuture(ar.cause()))));
+        return;
+      }
+      Map<String, JsonObject> users = new HashMap<>();
+      for (int i = 0; i < ar.result().size(); i++) {
+        JsonObject user = ar.result().getJsonObject(i);
+        users.put(user.getString("username"), user);
+      }
+      batch.forEach((username, waiters) -> {
+        JsonObject user = users.get(username);
+        for (int i = 0; i < waiters.size(); i++) {
+          // callers of the same username don't share a mutable document
+          JsonObject result = user == null || i == 0 ? user : user.copy();
+          waiters.get(i).complete(Future.succeededFuture(result));
+        }
+      });
+    });
+  }
+
+  @Override
+  public void retrieveUsers(List<String> usernames, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.retrieveUsers(usernames, resultHandler);
+  }
+
+  @Override
+  public void addUser(User user, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.addUser(user, resultHandler);
+  }
+
+  @Override
+  public void addUsers(List<User> users, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.addUsers(users, resultHandler);
+  }
+
+  @Override
+  public void listUsers(String after, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.listUsers(after, limit, resultHandler);
+  }
+
+  @Override
+  public void deleteUser(String username, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.deleteUser(username, resultHandler);
+  }
+
+  @Override
+  public void loginUser(String username, String password, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.loginUser(username, password, resultHandler);
+  }
+
+  @Override
+  public void logoutUser(String token, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.logoutUser(token, resultHandler);
+  }
+
+  @Override
+  public void authenticate(String token, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.authenticate(token, resultHandler);
+  }
+
+  @Override
+  public void updateUser(String username, User user, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.updateUser(username, user, resultHandler);
+  }
+
+  @Override
+  public void patchUser(String username, User changes, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.patchUser(username, changes, resultHandler);
+  }
+
+  private static final class Waiter {
+    private final Context context;
+    private final Handler<AsyncResult<JsonObject>> handler;
+
+    private Waiter(Context context, Handler<AsyncResult<JsonObject>> handler) {
+      this.context = context;
+      this.handler = handler;
+    }
+
+    private void complete(AsyncResult<JsonObject> result) {
+      if (Vertx.currentContext() == context) {
+        handler.handle(result);
+      } else {
+        context.runOnContext(v -> handler.handle(result));
+      }
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package io.vertx.stackoverflow.user.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free Bloom filter of strings, sized for an expected number of insertions and false positive probability.
+ * <p>
+ * Keys can't be removed, a removed key only costs a false positive until the filter is rebuilt.
+ */
+class BloomFilter {
+
+  private final AtomicLongArray bits;
+  private final long bitSize;
+  private final int hashCount;
+  private final AtomicLong bitsSet = new AtomicLong();
+
+  BloomFilter(long expectedInsertions, double fpp) {
+    long n = Math.max(1, expectedInsertions);
+    long m = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+    int words = (int) Math.min(Integer.MAX_VALUE, (m + 63) / 64);
+    this.bits = new AtomicLongArray(words);
+    this.bitSize = words * 64L;
+    this.hashCount = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+  }
+
+  void put(String key) {
+    long hash = hash(key);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 1; i <= hashCount; i++) {
+      long index = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitSize;
+      int word = (int) (index >>> 6);
+      long mask = 1L << index;
+      while (true) {
+        long current = bits.get(word);
+        if ((current & mask) != 0) {
+          break;
+        }
+        if (bits.compareAndSet(word, current, current | mask)) {
+          bitsSet.incrementAndGet();
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return {@code false} if the key was never put, {@code true} if it probably was
+   */
+  boolean mightContain(String key) {
+    long hash = hash(key);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 1; i <= hashCount; i++) {
+      long index = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitSize;
+      if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the probability that a key never put is reported as present, given how full the filter is
+   */
+  double expectedFpp() {
+    return Math.pow((double) bitsSet.get() / bitSize, hashCount);
+  }
+
+  long sizeInBytes() {
+    return bitSize / 8;
+  }
+
+  /**
+   * FNV-1a over the chars of the key, finished with the Murmur3 mixer so both halves are usable as hashes.
+   */
+  private static long hash(String key) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++) {
+      hash ^= key.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
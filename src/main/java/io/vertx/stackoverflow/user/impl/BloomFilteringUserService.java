@@ -0,0 +1,289 @@
+package io.vertx.stackoverflow.user.impl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.stackoverflow.user.User;
+import io.vertx.stackoverflow.user.UserService;
+import io.vertx.stackoverflow.user.metrics.MetricsRegistry;
+
+/**
+ * {@link UserService} answering the lookups of usernames that don't exist without calling the delegate, from a Bloom
+ * filter of the existing usernames.
+ * <p>
+ * The filter is loaded by paging through the users with {@link UserService#listUsers} and is only used once loaded.
+ * Usernames are added before they are inserted, so a user created through this node is never reported missing once
+ * its creation returned. A deleted username stays in the filter until it is rebuilt, every {@code rebuild-interval},
+ * which only costs a lookup.
+ * <p>
+ * When clustered, the usernames added on a node are broadcast to the filters of the other nodes. Broadcasts may be
+ * late or lost, so a miss of the filter isn't a definite miss there, and {@link io.vertx.stackoverflow.user.UserVerticle}
+ * only enables the filter when clustered if configured to. With {@code confirm-negatives}, the misses are still looked
+ * up through the delegate, counting the usernames whose broadcast never arrived, which tells whether the filter can be
+ * trusted without confirming.
+ * <p>
+ * Logins always go to the delegate, which verifies the password of an unknown user too, so the response time of a
+ * login never tells whether its username exists.
+ */
+public class BloomFilteringUserService implements UserService {
+
+  public static final String ADDRESS = "user.bloom.additions";
+
+  private static final Logger logger = LoggerFactory.getLogger(BloomFilteringUserService.class);
+
+  private final Vertx vertx;
+  private final UserService delegate;
+  private final long expectedInsertions;
+  private final double fpp;
+  private final int pageSize;
+  private final long retryDelay;
+  private final LongAdder negatives = new LongAdder();
+  private final LongAdder falsePositives = new LongAdder();
+  private final LongAdder falseNegatives = new LongAdder();
+  private final boolean confirmNegatives;
+  private ClusterCacheInvalidator clusterSync;
+  private UserSource source;
+
+  // null until loaded
+  private volatile BloomFilter filter;
+  // filter being loaded, receiving the additions too
+  private volatile BloomFilter loading;
+
+  public BloomFilteringUserService(Vertx vertx, UserService delegate, JsonObject config) {
+    this.vertx = vertx;
+    this.delegate = delegate;
+    this.source = UserSource.of(delegate);
+    this.expectedInsertions = config.getLong("expected-users", 1000000L);
+    this.fpp = config.getDouble("false-positive-rate", 0.01);
+    this.pageSize = config.getInteger("load-page-size", 1000);
+    this.retryDelay = config.getLong("load-retry-delay", 5000L);
+    this.confirmNegatives = config.getBoolean("confirm-negatives", false);
+  }
+
+  /**
+   * Load the filter from its source, replacing the current one once done.
+   */
+  public void load() {
+    if (loading != null) {
+      return;
+    }
+    BloomFilter next = new BloomFilter(expectedInsertions, fpp);
+    loading = next;
+    loadPage(next, null, 0);
+  }
+
+  /**
+   * Load the filter from the given source rather than the delegate, e.g. one which doesn't read from secondaries.
+   */
+  public void setSource(UserSource source) {
+    this.source = source;
+  }
+
+  /**
+   * Share the usernames added on this node with the other nodes of the cluster.
+   */
+  public void setClusterSync(ClusterCacheInvalidator clusterSync) {
+    this.clusterSync = clusterSync;
+  }
+
+  /**
+   * Add a username to the filter of this node only.
+   */
+  public void add(String username) {
+    // loading first: once it is null, the loaded filter is the current one
+    BloomFilter next = loading;
+    if (next != null) {
+      next.put(username);
+    }
+    BloomFilter current = filter;
+    if (current != null) {
+      current.put(username);
+    }
+  }
+
+  /**
+   * Expose the size and false positive rates of the filter in the given registry.
+   */
+  public void registerMetrics(MetricsRegistry metrics) {
+    metrics.gauge("user_bloom_filter_bytes", "", "Memory used by the Bloom filter of usernames", () -> {
+      BloomFilter current = filter;
+      return current == null ? 0 : current.sizeInBytes();
+    });
+    metrics.gauge("user_bloom_filter_expected_fpp", "", "False positive probability of the Bloom filter of usernames",
+      () -> {
+        BloomFilter current = filter;
+        return current == null ? 0 : current.expectedFpp();
+      });
+    metrics.counter("user_bloom_filter_negatives_total", "", "Missing usernames answered from the Bloom filter",
+      negatives::sum);
+    metrics.counter("user_bloom_filter_false_positives_total", "",
+      "Missing usernames the Bloom filter let through", falsePositives::sum);
+    metrics.counter("user_bloom_filter_false_negatives_total", "",
+      "Existing usernames missing from the Bloom filter, found by the confirming lookups", falseNegatives::sum);
+  }
+
+  @Override
+  public void addUser(User user, Handler<AsyncResult<JsonObject>> resultHandler) {
+    added(user.getUsername());
+    delegate.addUser(user, resultHandler);
+  }
+
+  @Override
+  public void addUsers(List<User> users, Handler<AsyncResult<JsonArray>> resultHandler) {
+    users.forEach(user -> added(user.getUsername()));
+    delegate.addUsers(users, resultHandler);
+  }
+
+  @Override
+  public void listUsers(String after, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.listUsers(after, limit, resultHandler);
+  }
+
+  @Override
+  public void deleteUser(String username, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.deleteUser(username, resultHandler);
+  }
+
+  @Override
+  public void retrieveUser(String username, Handler<AsyncResult<JsonObject>> resultHandler) {
+    boolean missing = isMissing(username);
+    if (missing && !confirmNegatives) {
+      negatives.increment();
+      resultHandler.handle(Future.succeededFuture());
+      return;
+    }
+    delegate.retrieveUser(username, asyncResult -> {
+      if (asyncResult.succeeded()) {
+        JsonObject user = asyncResult.result();
+        if (missing && user != null) {
+          unexpected(username);
+        } else if (!missing && user == null && filter != null) {
+          falsePositives.increment();
+        }
+      }
+      resultHandler.handle(asyncResult);
+    });
+  }
+
+  @Override
+  public void retrieveUsers(List<String> usernames, Handler<AsyncResult<JsonArray>> resultHandler) {
+    List<String> candidates = new ArrayList<>(usernames.size());
+    Set<String> missing = new HashSet<>();
+    for (String username : usernames) {
+      if (isMissing(username)) {
+        missing.add(username);
+      } else {
+        candidates.add(username);
+      }
+    }
+    if (!confirmNegatives) {
+      negatives.add(missing.size());
+      if (candidates.isEmpty()) {
+        resultHandler.handle(Future.succeededFuture(new JsonArray()));
+        return;
+      }
+    }
+    boolean counted = filter != null;
+    delegate.retrieveUsers(confirmNegatives ? usernames : candidates, asyncResult -> {
+      if (asyncResult.succeeded() && counted) {
+        Set<String> found = new HashSet<>();
+        for (int i = 0; i < asyncResult.result().size(); i++) {
+          String username = asyncResult.result().getJsonObject(i).getString("username");
+          found.add(username);
+          if (missing.contains(username)) {
+            unexpected(username);
+          }
+        }
+        for (String candidate : candidates) {
+          if (!found.contains(candidate)) {
+            falsePositives.increment();
+          }
+        }
+      }
+      resultHandler.handle(asyncResult);
+    });
+  }
+
+  @Override
+  public void loginUser(String username, String password, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.loginUser(username, password, resultHandler);
+  }
+
+  @Override
+  public void logoutUser(String token, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.logoutUser(token, resultHandler);
+  }
+
+  @Override
+  public void updateUser(String username, User user, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.updateUser(username, user, resultHandler);
+  }
+
+  @Override
+  public void patchUser(String username, User changes, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.patchUser(username, changes, resultHandler);
+  }
+
+  @Override
+  public void authenticate(String token, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.authenticate(token, resultHandler);
+  }
+
+  private boolean isMissing(String username) {
+    BloomFilter current = filter;
+    return current != null && username != null && !current.mightContain(username);
+  }
+
+  /**
+   * An existing username missing from the filter, whose addition didn't reach this node.
+   */
+  private void unexpected(String username) {
+    falseNegatives.increment();
+    add(username);
+  }
+
+  private void added(String username) {
+    if (username == null) {
+      return;
+    }
+    add(username);
+    if (clusterSync != null) {
+      clusterSync.invalidate(username);
+    }
+  }
+
+  private void loadPage(BloomFilter next, String after, long count) {
+    source.listUsers(after, pageSize, asyncResult -> {
+      if (asyncResult.failed()) {
+        logger.warn("Unable to load the Bloom filter of usernames, retrying in " + retryDelay + " ms",
+          asyncResult.cause());
+        vertx.setTimer(retryDelay, id -> loadPage(next, after, count));
+        return;
+      }
+      JsonArray users = asyncResult.result();
+      String last = after;
+      for (int i = 0; i < users.size(); i++) {
+        last = users.getJsonObject(i).getString("username");
+        next.put(last);
+      }
+      if (users.size() == pageSize) {
+        loadPage(next, last, count + users.size());
+      } else {
+        filter = next;
+        loading = null;
+        logger.info("Loaded " + (count + users.size()) + " usernames in the Bloom filter");
+      }
+    });
+  }
+}
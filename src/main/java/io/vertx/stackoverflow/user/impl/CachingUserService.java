@@ -0,0 +1,230 @@
+package io.vertx.stackoverflow.user.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.stackoverflow.user.User;
+import io.vertx.stackoverflow.user.UserService;
+import io.vertx.stackoverflow.user.UserServiceException;
+import io.vertx.stackoverflow.user.metrics.MetricsRegistry;
+
+/**
+ * Read-through cache of user documents in front of another {@link UserService}.
+ * <p>
+ * Only {@link #retrieveUser} is served from the cache, writes go to the delegate and invalidate the cached
+ * document of the user they touch once they complete.
+ * <p>
+ * Documents are retained for {@code stale-ttl} after they expire: when the delegate answers
+ * {@link UserServiceException#SERVICE_UNAVAILABLE}, e.g. because the Mongo circuit breaker is open, reads fall back to
+ * the last known copy.
+ */
+public class CachingUserService implements UserService {
+
+  private final UserService delegate;
+  private final ExpiringLruCache<String, JsonObject> cache;
+  // bumped on every invalidation, a lookup started before an invalidation must not fill the cache
+  private final AtomicLong invalidations = new AtomicLong();
+  private final LongAdder staleReads = new LongAdder();
+  private ClusterCacheInvalidator clusterInvalidator;
+
+  public CachingUserService(UserService delegate, JsonObject config) {
+    this.delegate = delegate;
+    this.cache = new ExpiringLruCache<>(config.getInteger("max-size", 10000), config.getLong("ttl", 60000L),
+      config.getLong("stale-ttl", 600000L));
+  }
+
+  @Override
+  public void addUser(User user, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.addUser(user, invalidating(user.getUsername(), resultHandler));
+  }
+
+  @Override
+  public void addUsers(List<User> users, Handler<AsyncResult<JsonArray>> resultHandler) {
+    // only existing users are cached, inserts can't make an entry stale
+    delegate.addUsers(users, resultHandler);
+  }
+
+  @Override
+  public void listUsers(String after, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.listUsers(after, limit, resultHandler);
+  }
+
+  @Override
+  public void deleteUser(String username, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.deleteUser(username, invalidating(username, resultHandler));
+  }
+
+  @Override
+  public void retrieveUser(String username, Handler<AsyncResult<JsonObject>> resultHandler) {
+    JsonObject cached = cache.get(username);
+    if (cached != null) {
+      resultHandler.handle(Future.succeededFuture(cached.copy()));
+      return;
+    }
+    long generation = invalidations.get();
+    delegate.retrieveUser(username, ar -> {
+      if (ar.failed() && isUnavailable(ar.cause())) {
+        JsonObject stale = cache.getStale(username);
+        if (stale != null) {
+          staleReads.increment();
+          resultHandler.handle(Future.succeededFuture(stale.copy()));
+          return;
+        }
+      }
+      if (ar.succeeded() && ar.result() != null && generation == invalidations.get()) {
+        cache.put(username, ar.result().copy());
+      }
+      resultHandler.handle(ar);
+    });
+  }
+
+  @Override
+  public void retrieveUsers(List<String> usernames, Handler<AsyncResult<JsonArray>> resultHandler) {
+    JsonArray users = new JsonArray();
+    List<String> missing = new ArrayList<>();
+    for (String username : usernames) {
+      JsonObject cached = cache.get(username);
+      if (cached != null) {
+        users.add(cached.copy());
+      } else {
+        missing.add(username);
+      }
+    }
+    if (missing.isEmpty()) {
+      resultHandler.handle(Future.succeededFuture(users));
+      return;
+    }
+    long generation = invalidations.get();
+    delegate.retrieveUsers(missing, ar -> {
+      if (ar.failed()) {
+        // all or nothing, a missing user would read as a user that doesn't exist
+        if (isUnavailable(ar.cause()) && addStale(missing, users)) {
+          resultHandler.handle(Future.succeededFuture(users));
+        } else {
+          resultHandler.handle(ar);
+        }
+        return;
+      }
+      boolean fill = generation == invalidations.get();
+      for (int i = 0; i < ar.result().size(); i++) {
+        JsonObject user = ar.result().getJsonObject(i);
+        if (fill) {
+          cache.put(user.getString("username"), user.copy());
+        }
+        users.add(user);
+      }
+      resultHandler.handle(Future.succeededFuture(users));
+    });
+  }
+
+  @Override
+  public void loginUser(String username, String password, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.loginUser(username, password, resultHandler);
+  }
+
+  @Override
+  public void logoutUser(String token, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.logoutUser(token, resultHandler);
+  }
+
+  @Override
+  public void authenticate(String token, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.authenticate(token, resultHandler);
+  }
+
+  @Override
+  public void updateUser(String username, User user, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.updateUser(username, user, invalidating(username, resultHandler));
+  }
+
+  @Override
+  public void patchUser(String username, User changes, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.patchUser(username, changes, invalidating(username, resultHandler));
+  }
+
+  /**
+   * Propagate the invalidations caused by writes on this node to the other nodes of the cluster.
+   */
+  public void setClusterInvalidator(ClusterCacheInvalidator clusterInvalidator) {
+    this.clusterInvalidator = clusterInvalidator;
+  }
+
+  /**
+   * Invalidate the cached document of a user on this node only.
+   */
+  public void invalidate(String username) {
+    invalidations.incrementAndGet();
+    cache.invalidate(username);
+  }
+
+  /**
+   * Drop the expired entries of the cache.
+   */
+  public void purgeExpired() {
+    cache.purgeExpired();
+  }
+
+  /**
+   * @return the cache hit, miss and eviction counters
+   */
+  public JsonObject stats() {
+    return new JsonObject()
+      .put("size", cache.size())
+      .put("hits", cache.hits())
+      .put("misses", cache.misses())
+      .put("evictions", cache.evictions())
+      .put("stale-reads", staleReads.sum());
+  }
+
+  /**
+   * Expose the cache counters in the given registry.
+   */
+  public void registerMetrics(MetricsRegistry metrics) {
+    metrics.gauge("user_cache_size", "", "Cached user documents", cache::size);
+    metrics.counter("user_cache_hits_total", "", "User cache hits", cache::hits);
+    metrics.counter("user_cache_misses_total", "", "User cache misses", cache::misses);
+    metrics.counter("user_cache_evictions_total", "", "User cache evictions", cache::evictions);
+    metrics.counter("user_cache_stale_reads_total", "", "Users served stale while Mongo is unavailable",
+      staleReads::sum);
+  }
+
+  private static boolean isUnavailable(Throwable cause) {
+    return cause instanceof UserServiceException &&
+      ((UserServiceException) cause).failureCode() == UserServiceException.SERVICE_UNAVAILABLE;
+  }
+
+  /**
+   * Add the stale copies of the given users if all of them are still retained.
+   */
+  private boolean addStale(List<String> usernames, JsonArray users) {
+    List<JsonObject> stale = new ArrayList<>(usernames.size());
+    for (String username : usernames) {
+      JsonObject user = cache.getStale(username);
+      if (user == null) {
+        return false;
+      }
+      stale.add(user.copy());
+    }
+    stale.forEach(users::add);
+    staleReads.add(stale.size());
+    return true;
+  }
+
+  private <T> Handler<AsyncResult<T>> invalidating(String username, Handler<AsyncResult<T>> resultHandler) {
+    return ar -> {
+      // invalidate even on failure, the write may have been applied before the error
+      invalidate(username);
+      if (clusterInvalidator != null) {
+        clusterInvalidator.invalidate(username);
+      }
+      resultHandler.handle(ar);
+    };
+  }
+}
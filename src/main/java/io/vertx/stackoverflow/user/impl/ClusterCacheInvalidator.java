@@ -0,0 +1,115 @@
+package io.vertx.stackoverflow.user.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+/**
+ * Broadcasts cache invalidations to the other nodes of the cluster over the event bus and applies the ones
+ * received from them.
+ * <p>
+ * The same broadcast serves other per node state keyed by a string, on an address of its own, see
+ * {@link BloomFilteringUserService} and {@link TokenRevocationStore}.
+ * <p>
+ * Invalidated keys are batched: they are published together once {@code invalidation-batch-size} distinct keys
+ * are pending or {@code invalidation-batch-delay} milliseconds after the first one, whichever comes first.
+ */
+public class ClusterCacheInvalidator {
+
+  public static final String ADDRESS = "user.cache.invalidations";
+
+  private static Logger logger = LoggerFactory.getLogger(ClusterCacheInvalidator.class);
+
+  private final Vertx vertx;
+  private final String address;
+  private final Consumer<String> localInvalidation;
+  private final String nodeId = UUID.randomUUID().toString();
+  private final int maxBatchSize;
+  private final long batchDelay;
+
+  private Set<String> pending = new LinkedHashSet<>();
+  private boolean flushScheduled;
+
+  /**
+   * @param localInvalidation invalidates a key in the local cache, called for keys received from other nodes
+   */
+  public ClusterCacheInvalidator(Vertx vertx, JsonObject config, Consumer<String> localInvalidation) {
+    this(vertx, ADDRESS, config, localInvalidation);
+  }
+
+  /**
+   * @param address           address the keys are broadcast on
+   * @param localInvalidation applies a key on this node, called for keys received from other nodes
+   */
+  public ClusterCacheInvalidator(Vertx vertx, String address, JsonObject config, Consumer<String> localInvalidation) {
+    this.vertx = vertx;
+    this.address = address;
+    this.localInvalidation = localInvalidation;
+    this.maxBatchSize = config.getInteger("invalidation-batch-size", 100);
+    this.batchDelay = config.getLong("invalidation-batch-delay", 10L);
+  }
+
+  /**
+   * Subscribe to the invalidations published by the other nodes.
+   */
+  public void start() {
+    vertx.eventBus().<JsonObject>consumer(address, message -> {
+      JsonObject body = message.body();
+      if (nodeId.equals(body.getString("origin"))) {
+        // already invalidated locally
+        return;
+      }
+      body.getJsonArray("keys").forEach(key -> localInvalidation.accept((String) key));
+    });
+  }
+
+  /**
+   * Queue the invalidation of a key on the other nodes.
+   */
+  public void invalidate(String key) {
+    Set<String> batch = null;
+    boolean schedule = false;
+    synchronized (this) {
+      pending.add(key);
+      if (pending.size() >= maxBatchSize) {
+        batch = pending;
+        pending = new LinkedHashSet<>();
+      } else if (!flushScheduled) {
+        flushScheduled = true;
+        schedule = true;
+      }
+    }
+    if (batch != null) {
+      publish(batch);
+    } else if (schedule) {
+      vertx.setTimer(batchDelay, id -> flush());
+    }
+  }
+
+  private void flush() {
+    Set<String> batch;
+    synchronized (this) {
+      batch = pending;
+      pending = new LinkedHashSet<>();
+      flushScheduled = false;
+    }
+    if (!batch.isEmpty()) {
+      publish(batch);
+    }
+  }
+
+  private void publish(Set<String> keys) {
+    logger.debug("Publishing invalidation of " + keys.size() + " users");
+    vertx.eventBus().publish(address, new JsonObject()
+      .put("origin", nodeId)
+      .put("keys", new JsonArray(new ArrayList<>(keys))));
+  }
+}
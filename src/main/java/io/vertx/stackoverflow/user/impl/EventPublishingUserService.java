@@ -0,0 +1,140 @@
+package io.vertx.stackoverflow.user.impl;
+
+import java.util.List;
+import java.util.UUID;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.stackoverflow.user.User;
+import io.vertx.stackoverflow.user.UserService;
+import io.vertx.stackoverflow.user.UserView;
+import io.vertx.stackoverflow.user.events.UserEventPublisher;
+
+/**
+ * {@link UserService} publishing a {@code user.created}, {@code user.updated} or {@code user.deleted} event once a
+ * write of the delegate succeeds.
+ * <p>
+ * Events are only queued for publishing, the result is handed back without waiting for the broker.
+ */
+public class EventPublishingUserService implements UserService {
+
+  private final UserService delegate;
+  private final UserEventPublisher publisher;
+
+  public EventPublishingUserService(UserService delegate, UserEventPublisher publisher) {
+    this.delegate = delegate;
+    this.publisher = publisher;
+  }
+
+  @Override
+  public void addUser(User user, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.addUser(user, asyncResult -> {
+      if (asyncResult.succeeded()) {
+        publish("user.created", user.getUsername(), user);
+      }
+      resultHandler.handle(asyncResult);
+    });
+  }
+
+  @Override
+  public void addUsers(List<User> users, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.addUsers(users, asyncResult -> {
+      if (asyncResult.succeeded()) {
+        AddUsersResults.forEachCreated(users, asyncResult.result(),
+          user -> publish("user.created", user.getUsername(), user));
+      }
+      resultHandler.handle(asyncResult);
+    });
+  }
+
+  @Override
+  public void listUsers(String after, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.listUsers(after, limit, resultHandler);
+  }
+
+  @Override
+  public void deleteUser(String username, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.deleteUser(username, asyncResult -> {
+      if (asyncResult.succeeded()) {
+        publish("user.deleted", username, null);
+      }
+      resultHandler.handle(asyncResult);
+    });
+  }
+
+  @Override
+  public void retrieveUser(String username, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.retrieveUser(username, resultHandler);
+  }
+
+  @Override
+  public void retrieveUsers(List<String> usernames, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.retrieveUsers(usernames, resultHandler);
+  }
+
+  @Override
+  public void loginUser(String username, String password, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.loginUser(username, password, resultHandler);
+  }
+
+  @Override
+  public void logoutUser(String token, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.logoutUser(token, resultHandler);
+  }
+
+  @Override
+  public void updateUser(String username, User user, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.updateUser(username, user, asyncResult -> {
+      if (asyncResult.succeeded()) {
+        publish("user.updated", username, user);
+      }
+      resultHandler.handle(asyncResult);
+    });
+  }
+
+  @Override
+  public void patchUser(String username, User changes, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.patchUser(username, changes, asyncResult -> {
+      if (asyncResult.succeeded()) {
+        // only the changed fields are known
+        publisher.publish(event("user.updated", username).put("changes", view(username, changes)));
+      }
+      resultHandler.handle(asyncResult);
+    });
+  }
+
+  @Override
+  public void authenticate(String token, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.authenticate(token, resultHandler);
+  }
+
+  /**
+   * @param user the user as written, {@code null} for a deletion; the password never leaves the service
+   */
+  private void publish(String type, String username, User user) {
+    JsonObject event = event(type, username);
+    if (user != null) {
+      event.put("user", view(username, user));
+    }
+    publisher.publish(event);
+  }
+
+  /**
+   * @return the public fields of a written user, without the version it was expected to be at
+   */
+  private static JsonObject view(String username, User user) {
+    JsonObject view = new UserView(user.toJson()).toJson().put("username", username);
+    view.remove("version");
+    return view;
+  }
+
+  private static JsonObject event(String type, String username) {
+    return new JsonObject()
+      .put("id", UUID.randomUUID().toString())
+      .put("type", type)
+      .put("username", username)
+      .put("timestamp", System.currentTimeMillis());
+  }
+}
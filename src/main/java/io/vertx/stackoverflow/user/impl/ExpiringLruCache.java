@@ -0,0 +1,162 @@
+package io.vertx.stackoverflow.user.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread safe LRU cache where every entry also expires at a given time.
+ * <p>
+ * Expired entries can be retained for a stale period, during which they are misses for {@link #get} but can still be
+ * read with {@link #getStale} as a fallback when the source of truth is unavailable.
+ * <p>
+ * The cache is shared by all the REST verticle instances, so access is synchronized. Critical sections only touch
+ * a {@link LinkedHashMap} in access order, which keeps them short.
+ */
+public class ExpiringLruCache<K, V> {
+
+  private final int maxSize;
+  private final long ttl;
+  private final long staleTtl;
+  private final LinkedHashMap<K, Entry<V>> entries;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * @param maxSize maximum number of entries kept, the least recently used entry is evicted beyond it
+   * @param ttl     default time to live of an entry in milliseconds
+   */
+  public ExpiringLruCache(int maxSize, long ttl) {
+    this(maxSize, ttl, 0);
+  }
+
+  /**
+   * @param maxSize  maximum number of entries kept, the least recently used entry is evicted beyond it
+   * @param ttl      default time to live of an entry in milliseconds
+   * @param staleTtl time in milliseconds an expired entry is retained for {@link #getStale}
+   */
+  public ExpiringLruCache(int maxSize, long ttl, long staleTtl) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be > 0");
+    }
+    this.maxSize = maxSize;
+    this.ttl = ttl;
+    this.staleTtl = staleTtl;
+    this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+        if (size() > ExpiringLruCache.this.maxSize) {
+          evictions.increment();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * @return the cached value or {@code null} if absent or expired
+   */
+  public V get(K key) {
+    long now = System.currentTimeMillis();
+    synchronized (entries) {
+      Entry<V> entry = entries.get(key);
+      if (entry != null) {
+        if (entry.expiresAt > now) {
+          hits.increment();
+          return entry.value;
+        }
+        if (entry.expiresAt + staleTtl <= now) {
+          entries.remove(key);
+          evictions.increment();
+        }
+      }
+    }
+    misses.increment();
+    return null;
+  }
+
+  /**
+   * @return the cached value even if expired, as long as it is in its stale period, or {@code null}
+   */
+  public V getStale(K key) {
+    long now = System.currentTimeMillis();
+    synchronized (entries) {
+      Entry<V> entry = entries.get(key);
+      return entry != null && entry.expiresAt + staleTtl > now ? entry.value : null;
+    }
+  }
+
+  public void put(K key, V value) {
+    put(key, value, System.currentTimeMillis() + ttl);
+  }
+
+  /**
+   * Put an entry expiring at the given time, or at the default time to live if it comes earlier.
+   */
+  public void put(K key, V value, long expiresAt) {
+    long bound = Math.min(expiresAt, System.currentTimeMillis() + ttl);
+    synchronized (entries) {
+      entries.put(key, new Entry<>(value, bound));
+    }
+  }
+
+  public void invalidate(K key) {
+    synchronized (entries) {
+      entries.remove(key);
+    }
+  }
+
+  public void invalidateAll() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  /**
+   * Drop the entries past their stale period, meant to be called periodically so expired entries don't wait for LRU eviction.
+   */
+  public void purgeExpired() {
+    long now = System.currentTimeMillis();
+    synchronized (entries) {
+      Iterator<Entry<V>> it = entries.values().iterator();
+      while (it.hasNext()) {
+        if (it.next().expiresAt + staleTtl <= now) {
+          it.remove();
+          evictions.increment();
+        }
+      }
+    }
+  }
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  public long hits() {
+    return hits.sum();
+  }
+
+  public long misses() {
+    return misses.sum();
+  }
+
+  public long evictions() {
+    return evictions.sum();
+  }
+
+  private static final class Entry<V> {
+    private final V value;
+    private final long expiresAt;
+
+    private Entry(V value, long expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package io.vertx.stackoverflow.user.impl;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import io.vertx.circuitbreaker.CircuitBreaker;
+import io.vertx.circuitbreaker.CircuitBreakerState;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.stackoverflow.user.UserServiceException;
+import io.vertx.stackoverflow.user.metrics.LatencyTimer;
+import io.vertx.stackoverflow.user.metrics.MetricsRegistry;
+
+/**
+ * Runs the Mongo operations through a circuit breaker, each one failing after its own timeout, and times them.
+ * <p>
+ * Only Mongo failures count against the breaker, a duplicate key is an answer of a healthy server. Operations rejected
+ * by the open breaker or timed out fail with {@link UserServiceException#SERVICE_UNAVAILABLE}, so reads can fall back
+ * to cached documents while writes fail fast.
+ */
+class MongoGuard {
+
+  private static final Logger logger = LoggerFactory.getLogger(MongoGuard.class);
+
+  private final Vertx vertx;
+  private final CircuitBreaker breaker;
+  private final MetricsRegistry metrics;
+  private final long defaultTimeout;
+  private final JsonObject timeouts;
+  private final LongAdder opened = new LongAdder();
+  private final LongAdder halfOpened = new LongAdder();
+  private final LongAdder closed = new LongAdder();
+
+  /**
+   * @param config the {@code circuit-breaker} configuration
+   */
+  MongoGuard(Vertx vertx, CircuitBreaker breaker, JsonObject config, MetricsRegistry metrics) {
+    this.vertx = vertx;
+    this.breaker = breaker;
+    this.metrics = metrics;
+    this.defaultTimeout = config.getLong("operation-timeout", 2000L);
+    this.timeouts = config.getJsonObject("operation-timeouts") != null ?
+      config.getJsonObject("operation-timeouts") : new JsonObject();
+
+    breaker.openHandler(v -> {
+      opened.increment();
+      logger.warn("Mongo circuit breaker opened after " + breaker.failureCount() + " failures");
+    });
+    breaker.halfOpenHandler(v -> halfOpened.increment());
+    breaker.closeHandler(v -> {
+      closed.increment();
+      logger.info("Mongo circuit breaker closed");
+    });
+
+    metrics.gauge("user_circuit_breaker_state", "", "Mongo circuit breaker state, 0 closed, 1 half open, 2 open",
+      () -> stateValue(breaker.state()));
+    metrics.gauge("user_circuit_breaker_failures", "", "Mongo failures counted by the circuit breaker",
+      breaker::failureCount);
+    metrics.counter("user_circuit_breaker_transitions_total", "state=\"open\"", "Mongo circuit breaker transitions",
+      opened::sum);
+    metrics.counter("user_circuit_breaker_transitions_total", "state=\"half_open\"", "Mongo circuit breaker transitions",
+      halfOpened::sum);
+    metrics.counter("user_circuit_breaker_transitions_total", "state=\"closed\"", "Mongo circuit breaker transitions",
+      closed::sum);
+  }
+
+  /**
+   * @param name name of the operation, used for its timeout ({@code operation-timeouts.<name>}) and its metrics
+   */
+  Operation operation(String name) {
+    return new Operation(name, timeouts.getLong(name, defaultTimeout),
+      metrics.timer("user_mongo_operation", "operation=\"" + name + "\"", "mongo operations"));
+  }
+
+  private static int stateValue(CircuitBreakerState state) {
+    switch (state) {
+      case OPEN:
+        return 2;
+      case HALF_OPEN:
+        return 1;
+      default:
+        return 0;
+    }
+  }
+
+  class Operation {
+
+    private final String name;
+    private final long timeout;
+    private final LatencyTimer timer;
+
+    private Operation(String name, long timeout, LatencyTimer timer) {
+      this.name = name;
+      this.timeout = timeout;
+      this.timer = timer;
+    }
+
+    /**
+     * @param command the Mongo call, completing the given handler
+     */
+    <T> void execute(Consumer<Handler<AsyncResult<T>>> command, Handler<AsyncResult<T>> resultHandler) {
+      breaker.<AsyncResult<T>>execute(future -> {
+        long timeoutId = vertx.setTimer(timeout, id -> future.tryFail(new UserServiceException(
+          UserServiceException.SERVICE_UNAVAILABLE, "Mongo " + name + " timed out after " + timeout + " ms")));
+        long start = timer.begin();
+        command.accept(asyncResult -> {
+          timer.end(start);
+          vertx.cancelTimer(timeoutId);
+          if (asyncResult.succeeded() || UserServiceImpl.isDuplicateKey(asyncResult.cause())) {
+            future.tryComplete(asyncResult);
+          } else {
+            future.tryFail(new MongoFailure(asyncResult.cause()));
+          }
+        });
+      }).setHandler(asyncResult -> {
+        if (asyncResult.succeeded()) {
+          resultHandler.handle(asyncResult.result());
+        } else if (asyncResult.cause() instanceof MongoFailure) {
+          resultHandler.handle(Future.failedFuture(asyncResult.cause().getCause()));
+        } else if (asyncResult.cause() instanceof UserServiceException) {
+          resultHandler.handle(Future.failedFuture(asyncResult.cause()));
+        } else {
+          // rejected by the open breaker, or past the timeout of the breaker itself
+          resultHandler.handle(Future.failedFuture(new UserServiceException(UserServiceException.SERVICE_UNAVAILABLE,
+            "Mongo unavailable: " + asyncResult.cause().getMessage())));
+        }
+      });
+    }
+  }
+
+  /**
+   * Failure of the Mongo call itself, told apart from the failures raised by the breaker.
+   */
+  private static final class MongoFailure extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private MongoFailure(Throwable cause) {
+      super(cause.getMessage(), cause, false, false);
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package io.vertx.stackoverflow.user.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.stackoverflow.user.UserServiceException;
+
+/**
+ * Salted PBKDF2 password hashing, run on a dedicated bounded thread pool so it never blocks an event loop.
+ * <p>
+ * Hashes are stored as {@code pbkdf2$<iterations>$<salt>$<hash>}. Tasks beyond {@code queue-size} pending ones are
+ * rejected and fail with a 503 {@link UserServiceException} instead of piling up. Results are delivered back on the
+ * caller's context.
+ */
+public class PasswordHasher {
+
+  private static final String PREFIX = "pbkdf2$";
+  private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+  private static final int SALT_LENGTH = 16;
+  private static final int KEY_LENGTH = 256;
+
+  private final Vertx vertx;
+  private final int iterations;
+  private final ThreadPoolExecutor executor;
+  private final SecureRandom random = new SecureRandom();
+  private final LongAdder rejected = new LongAdder();
+  // hash no password matches, verified against for unknown users
+  private final String dummyHash;
+
+  public PasswordHasher(Vertx vertx, JsonObject config) {
+    this.vertx = vertx;
+    this.iterations = config.getInteger("iterations", 10000);
+    int poolSize = config.getInteger("pool-size", Runtime.getRuntime().availableProcessors());
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<>(config.getInteger("queue-size", 1000)),
+      runnable -> {
+        Thread thread = new Thread(runnable, "password-hasher-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    byte[] salt = new byte[SALT_LENGTH];
+    byte[] hash = new byte[KEY_LENGTH / 8];
+    random.nextBytes(salt);
+    random.nextBytes(hash);
+    this.dummyHash = PREFIX + iterations + "$" + Base64.getEncoder().encodeToString(salt)
+      + "$" + Base64.getEncoder().encodeToString(hash);
+  }
+
+  /**
+   * Hash a password with a new random salt.
+   */
+  public void hash(String password, Handler<AsyncResult<String>> resultHandler) {
+    execute(() -> hash(password), resultHandler);
+  }
+
+  /**
+   * Hash several passwords as a single task.
+   */
+  public void hashAll(List<String> passwords, Handler<AsyncResult<List<String>>> resultHandler) {
+    execute(() -> {
+      List<String> hashes = new ArrayList<>(passwords.size());
+      for (String password : passwords) {
+        hashes.add(hash(password));
+      }
+      return hashes;
+    }, resultHandler);
+  }
+
+  /**
+   * Check a password against a stored hash, or against a legacy plain text password.
+   */
+  public void verify(String password, String stored, Handler<AsyncResult<Boolean>> resultHandler) {
+    if (stored == null) {
+      resultHandler.handle(Future.succeededFuture(false));
+    } else if (!stored.startsWith(PREFIX)) {
+      resultHandler.handle(Future.succeededFuture(
+        MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8))));
+    } else {
+      execute(() -> {
+        String[] parts = stored.split("\\$");
+        byte[] salt = Base64.getDecoder().decode(parts[2]);
+        byte[] expected = Base64.getDecoder().decode(parts[3]);
+        return MessageDigest.isEqual(expected, pbkdf2(password, salt, Integer.parseInt(parts[1])));
+      }, resultHandler);
+    }
+  }
+
+  /**
+   * Verify a password of a user that doesn't exist, always {@code false} but as slow as the verification of a wrong
+   * password, so the response time doesn't tell whether the user exists.
+   */
+  public void verifyUnknown(String password, Handler<AsyncResult<Boolean>> resultHandler) {
+    verify(password, dummyHash, resultHandler);
+  }
+
+  /**
+   * @return whether the stored password is plain text or hashed with a lower cost than the configured one
+   */
+  public boolean needsRehash(String stored) {
+    if (stored == null || !stored.startsWith(PREFIX)) {
+      return true;
+    }
+    String[] parts = stored.split("\\$");
+    return Integer.parseInt(parts[1]) < iterations;
+  }
+
+  /**
+   * @return the pool queue depth and the number of rejected tasks
+   */
+  public JsonObject stats() {
+    return new JsonObject()
+      .put("iterations", iterations)
+      .put("active", executor.getActiveCount())
+      .put("queued", executor.getQueue().size())
+      .put("rejected", rejected.sum());
+  }
+
+  public int queueDepth() {
+    return executor.getQueue().size();
+  }
+
+  public void close() {
+    executor.shutdown();
+  }
+
+  private String hash(String password) throws GeneralSecurityException {
+    byte[] salt = new byte[SALT_LENGTH];
+    random.nextBytes(salt);
+    byte[] hash = pbkdf2(password, salt, iterations);
+    return PREFIX + iterations + "$" + Base64.getEncoder().encodeToString(salt)
+      + "$" + Base64.getEncoder().encodeToString(hash);
+  }
+
+  private byte[] pbkdf2(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+    PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_LENGTH);
+    try {
+      return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+    } finally {
+      spec.clearPassword();
+    }
+  }
+
+  private <T> void execute(Callable<T> task, Handler<AsyncResult<T>> resultHandler) {
+    Context context = vertx.getOrCreateContext();
+    try {
+      executor.execute(() -> {
+        Future<T> result;
+        try {
+          result = Future.succeededFuture(task.call());
+        } catch (Exception e) {
+          result = Future.failedFuture(e);
+        }
+        Future<T> completed = result;
+        context.runOnContext(v -> resultHandler.handle(completed));
+      });
+    } catch (RejectedExecutionException e) {
+      rejected.increment();
+      resultHandler.handle(Future.failedFuture(new UserServiceException(UserServiceException.SERVICE_UNAVAILABLE,
+        "Too many pending password operations")));
+    }
+  }
+}
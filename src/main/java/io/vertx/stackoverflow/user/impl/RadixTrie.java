@@ -0,0 +1,202 @@
+package io.vertx.stackoverflow.user.impl;
+
+import java.util.Set;
+
+/**
+ * Radix trie from terms to the usernames they belong to, with edges labeled by whole runs of characters so that a
+ * node either ends a key or has several children.
+ * <p>
+ * Each term and username pair is a key of its own, {@code term + '\0' + username}, so adding or removing a username
+ * only walks down its key however many usernames share the term. Nodes are immutable: a write copies the nodes along
+ * the path of its key and publishes the new root, so lookups never wait for writes and always see a whole trie.
+ * Writes must not run concurrently with each other.
+ */
+class RadixTrie {
+
+  private static final char SEPARATOR = '\0';
+  private static final Node[] NO_CHILDREN = new Node[0];
+
+  private static final class Node {
+    private final String label;
+    // sorted by the first char of their label
+    private final Node[] children;
+    // the username of the key ending here, if any
+    private final String value;
+
+    private Node(String label, Node[] children, String value) {
+      this.label = label;
+      this.children = children;
+      this.value = value;
+    }
+
+    private int indexOf(char first) {
+      int low = 0;
+      int high = children.length - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        char c = children[mid].label.charAt(0);
+        if (c < first) {
+          low = mid + 1;
+        } else if (c > first) {
+          high = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -(low + 1);
+    }
+
+    private Node withChild(int insertionPoint, Node child) {
+      Node[] grown = new Node[children.length + 1];
+      System.arraycopy(children, 0, grown, 0, insertionPoint);
+      grown[insertionPoint] = child;
+      System.arraycopy(children, insertionPoint, grown, insertionPoint + 1, children.length - insertionPoint);
+      return new Node(label, grown, value);
+    }
+
+    private Node replacingChild(int index, Node child) {
+      Node[] replaced = children.clone();
+      replaced[index] = child;
+      return new Node(label, replaced, value);
+    }
+
+    private Node withoutChild(int index) {
+      Node[] shrunk = children.length == 1 ? NO_CHILDREN : new Node[children.length - 1];
+      System.arraycopy(children, 0, shrunk, 0, index);
+      System.arraycopy(children, index + 1, shrunk, index, children.length - index - 1);
+      return new Node(label, shrunk, value);
+    }
+  }
+
+  private volatile Node root = new Node("", NO_CHILDREN, null);
+  private volatile long nodes = 1;
+
+  void put(String term, String value) {
+    root = put(root, key(term, value), 0, value);
+  }
+
+  void remove(String term, String value) {
+    root = remove(root, key(term, value), 0);
+  }
+
+  /**
+   * Add the values of the terms starting with the given prefix, in the order of the terms, until there are
+   * {@code limit} of them.
+   */
+  void collect(String prefix, int limit, Set<String> values) {
+    Node node = root;
+    int i = 0;
+    while (i < prefix.length()) {
+      int index = node.indexOf(prefix.charAt(i));
+      if (index < 0) {
+        return;
+      }
+      Node child = node.children[index];
+      int common = commonPrefix(child.label, prefix, i);
+      if (i + common == prefix.length()) {
+        // the prefix ends on this edge, everything below matches
+        node = child;
+        break;
+      }
+      if (common < child.label.length()) {
+        return;
+      }
+      node = child;
+      i += common;
+    }
+    collect(node, limit, values);
+  }
+
+  long nodes() {
+    return nodes;
+  }
+
+  private static String key(String term, String value) {
+    return term + SEPARATOR + value;
+  }
+
+  private static void collect(Node node, int limit, Set<String> values) {
+    if (node.value != null) {
+      values.add(node.value);
+    }
+    for (int i = 0; i < node.children.length && values.size() < limit; i++) {
+      collect(node.children[i], limit, values);
+    }
+  }
+
+  /**
+   * @return a copy of the node with the key added
+   */
+  private Node put(Node node, String key, int i, String value) {
+    if (i == key.length()) {
+      return value.equals(node.value) ? node : new Node(node.label, node.children, value);
+    }
+    int index = node.indexOf(key.charAt(i));
+    if (index < 0) {
+      nodes++;
+      return node.withChild(-index - 1, new Node(key.substring(i), NO_CHILDREN, value));
+    }
+    Node child = node.children[index];
+    int common = commonPrefix(child.label, key, i);
+    if (common < child.label.length()) {
+      // split the edge where the key leaves it
+      Node tail = new Node(child.label.substring(common), child.children, child.value);
+      child = new Node(child.label.substring(0, common), new Node[] {tail}, null);
+      nodes++;
+    }
+    Node updated = put(child, key, i + common, value);
+    return updated == node.children[index] ? node : node.replacingChild(index, updated);
+  }
+
+  /**
+   * @return a copy of the node without the key, the node itself if it doesn't have it, {@code null} if it is left
+   * with neither a value nor children
+   */
+  private Node remove(Node node, String key, int i) {
+    if (i == key.length()) {
+      return node.value == null ? node : compact(node.label, node.children, null);
+    }
+    int index = node.indexOf(key.charAt(i));
+    if (index < 0) {
+      return node;
+    }
+    Node child = node.children[index];
+    if (!key.startsWith(child.label, i)) {
+      return node;
+    }
+    Node updated = remove(child, key, i + child.label.length());
+    if (updated == child) {
+      return node;
+    }
+    if (updated == null) {
+      Node shrunk = node.withoutChild(index);
+      // the root keeps its empty label, even when left with a single child
+      return node == root ? shrunk : compact(shrunk.label, shrunk.children, shrunk.value);
+    }
+    return node.replacingChild(index, updated);
+  }
+
+  /**
+   * Keep the trie compact: a node without a value has at least two children.
+   */
+  private Node compact(String label, Node[] children, String value) {
+    if (value != null || children.length > 1) {
+      return new Node(label, children, value);
+    }
+    nodes--;
+    if (children.length == 0) {
+      return null;
+    }
+    Node child = children[0];
+    return new Node(label + child.label, child.children, child.value);
+  }
+
+  private static int commonPrefix(String label, String term, int offset) {
+    int max = Math.min(label.length(), term.length() - offset);
+    int i = 0;
+    while (i < max && label.charAt(i) == term.charAt(offset + i)) {
+      i++;
+    }
+    return i;
+  }
+}
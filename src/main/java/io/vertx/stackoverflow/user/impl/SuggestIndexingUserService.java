@@ -0,0 +1,206 @@
+package io.vertx.stackoverflow.user.impl;
+
+import java.util.List;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.stackoverflow.user.User;
+import io.vertx.stackoverflow.user.UserService;
+
+/**
+ * {@link UserService} keeping a {@link UserSuggestIndex} up to date with the writes going through it.
+ * <p>
+ * The index is loaded by paging through the users with {@link UserService#listUsers}, and reloaded periodically to
+ * drop the users gone and pick up the ones it missed. When clustered, the usernames written on a node are broadcast to
+ * the other nodes, which read the user back to re-index it.
+ */
+public class SuggestIndexingUserService implements UserService {
+
+  public static final String ADDRESS = "user.suggest.changes";
+
+  private static final Logger logger = LoggerFactory.getLogger(SuggestIndexingUserService.class);
+
+  private final Vertx vertx;
+  private final UserService delegate;
+  private final UserSuggestIndex index;
+  private final int pageSize;
+  private final long retryDelay;
+  private ClusterCacheInvalidator clusterSync;
+  private UserSource source;
+  private boolean loading;
+
+  public SuggestIndexingUserService(Vertx vertx, UserService delegate, UserSuggestIndex index, JsonObject config) {
+    this.vertx = vertx;
+    this.delegate = delegate;
+    this.source = UserSource.of(delegate);
+    this.index = index;
+    this.pageSize = config.getInteger("load-page-size", 1000);
+    this.retryDelay = config.getLong("load-retry-delay", 5000L);
+  }
+
+  /**
+   * Load the index from its source, replacing the current one once done.
+   */
+  public void load() {
+    if (loading) {
+      return;
+    }
+    loading = true;
+    index.beginLoad();
+    loadPage(null, 0);
+  }
+
+  /**
+   * Load and refresh the index from the given source rather than the delegate, e.g. one which doesn't read from
+   * secondaries.
+   */
+  public void setSource(UserSource source) {
+    this.source = source;
+  }
+
+  /**
+   * Share the usernames written on this node with the other nodes of the cluster.
+   */
+  public void setClusterSync(ClusterCacheInvalidator clusterSync) {
+    this.clusterSync = clusterSync;
+  }
+
+  /**
+   * Re-index a user from its current document, e.g. after it was written on another node.
+   */
+  public void refresh(String username) {
+    source.retrieveUser(username, asyncResult -> {
+      if (asyncResult.failed()) {
+        logger.warn("Unable to re-index " + username, asyncResult.cause());
+      } else if (asyncResult.result() == null) {
+        index.remove(username);
+      } else {
+        index.put(username, asyncResult.result().getString("firstName"), asyncResult.result().getString("lastName"));
+      }
+    });
+  }
+
+  @Override
+  public void addUser(User user, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.addUser(user, asyncResult -> {
+      if (asyncResult.succeeded()) {
+        written(user.getUsername(), user);
+      }
+      resultHandler.handle(asyncResult);
+    });
+  }
+
+  @Override
+  public void addUsers(List<User> users, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.addUsers(users, asyncResult -> {
+      if (asyncResult.succeeded()) {
+        AddUsersResults.forEachCreated(users, asyncResult.result(), user -> written(user.getUsername(), user));
+      }
+      resultHandler.handle(asyncResult);
+    });
+  }
+
+  @Override
+  public void listUsers(String after, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.listUsers(after, limit, resultHandler);
+  }
+
+  @Override
+  public void deleteUser(String username, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.deleteUser(username, asyncResult -> {
+      if (asyncResult.succeeded()) {
+        written(username, null);
+      }
+      resultHandler.handle(asyncResult);
+    });
+  }
+
+  @Override
+  public void retrieveUser(String username, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.retrieveUser(username, resultHandler);
+  }
+
+  @Override
+  public void retrieveUsers(List<String> usernames, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.retrieveUsers(usernames, resultHandler);
+  }
+
+  @Override
+  public void loginUser(String username, String password, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.loginUser(username, password, resultHandler);
+  }
+
+  @Override
+  public void logoutUser(String token, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.logoutUser(token, resultHandler);
+  }
+
+  @Override
+  public void updateUser(String username, User user, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.updateUser(username, user, asyncResult -> {
+      if (asyncResult.succeeded()) {
+        written(username, user);
+      }
+      resultHandler.handle(asyncResult);
+    });
+  }
+
+  @Override
+  public void patchUser(String username, User changes, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.patchUser(username, changes, asyncResult -> {
+      if (asyncResult.succeeded() && (changes.getFirstName() != null || changes.getLastName() != null)) {
+        index.patch(username, changes.getFirstName(), changes.getLastName());
+        if (clusterSync != null) {
+          clusterSync.invalidate(username);
+        }
+      }
+      resultHandler.handle(asyncResult);
+    });
+  }
+
+  @Override
+  public void authenticate(String token, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.authenticate(token, resultHandler);
+  }
+
+  /**
+   * @param user the user as written, {@code null} for a deletion
+   */
+  private void written(String username, User user) {
+    if (username == null) {
+      return;
+    }
+    if (user == null) {
+      index.remove(username);
+    } else {
+      index.put(username, user.getFirstName(), user.getLastName());
+    }
+    if (clusterSync != null) {
+      clusterSync.invalidate(username);
+    }
+  }
+
+  private void loadPage(String after, long count) {
+    source.listUsers(after, pageSize, asyncResult -> {
+      if (asyncResult.failed()) {
+        logger.warn("Unable to load the autocompletion index, retrying in " + retryDelay + " ms", asyncResult.cause());
+        vertx.setTimer(retryDelay, id -> loadPage(after, count));
+        return;
+      }
+      JsonArray users = asyncResult.result();
+      index.load(users);
+      if (users.size() == pageSize) {
+        loadPage(users.getJsonObject(users.size() - 1).getString("username"), count + users.size());
+      } else {
+        index.endLoad();
+        loading = false;
+        logger.info("Loaded " + (count + users.size()) + " users in the autocompletion index");
+      }
+    });
+  }
+}
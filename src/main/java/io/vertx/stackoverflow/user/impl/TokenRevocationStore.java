@@ -0,0 +1,122 @@
+package io.vertx.stackoverflow.user.impl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * In memory set of revoked tokens, where every entry expires with the token it revokes.
+ * <p>
+ * Lookups are a single {@link ConcurrentHashMap} read. Expiration uses a time wheel of {@code wheel-size} buckets of
+ * {@code bucket-duration} milliseconds: a revoked token is filed under the bucket of its expiration time and
+ * {@link #advance()} drops whole buckets once their time has passed, so no scan of the revoked tokens is ever needed.
+ * Tokens expiring beyond the wheel are filed in its last bucket and filed again when it is swept.
+ * <p>
+ * When clustered, the tokens revoked on a node are broadcast with their expiration time to the stores of the other
+ * nodes, so a token logged out on one node is rejected by all of them.
+ */
+public class TokenRevocationStore {
+
+  public static final String ADDRESS = "user.token.revocations";
+
+  private final ConcurrentHashMap<String, Long> revoked = new ConcurrentHashMap<>();
+  private final long bucketDuration;
+  private final List<Set<String>> wheel;
+  // absolute index of the next bucket to sweep
+  private long cursor;
+  private ClusterCacheInvalidator clusterSync;
+
+  public TokenRevocationStore(JsonObject config) {
+    this.bucketDuration = config.getLong("bucket-duration", 1000L);
+    int wheelSize = config.getInteger("wheel-size", 3600);
+    this.wheel = new ArrayList<>(wheelSize);
+    for (int i = 0; i < wheelSize; i++) {
+      wheel.add(new HashSet<>());
+    }
+    this.cursor = System.currentTimeMillis() / bucketDuration;
+  }
+
+  /**
+   * Share the tokens revoked on this node with the other nodes of the cluster.
+   */
+  public void setClusterSync(ClusterCacheInvalidator clusterSync) {
+    this.clusterSync = clusterSync;
+  }
+
+  /**
+   * Revoke a token on this node, and on the other nodes when clustered.
+   *
+   * @param key       the token id, or a hash of the token
+   * @param expiresAt expiration time of the token, in milliseconds
+   */
+  public void revoke(String key, long expiresAt) {
+    revokeLocally(key, expiresAt);
+    if (clusterSync != null) {
+      // the expiration first, as it can't contain the separator
+      clusterSync.invalidate(expiresAt + ":" + key);
+    }
+  }
+
+  /**
+   * Apply a revocation broadcast by another node.
+   */
+  public void revoked(String entry) {
+    int separator = entry.indexOf(':');
+    revokeLocally(entry.substring(separator + 1), Long.parseLong(entry.substring(0, separator)));
+  }
+
+  private void revokeLocally(String key, long expiresAt) {
+    long now = System.currentTimeMillis();
+    if (expiresAt <= now) {
+      return;
+    }
+    synchronized (this) {
+      revoked.put(key, expiresAt);
+      file(key, expiresAt, now);
+    }
+  }
+
+  public boolean isRevoked(String key) {
+    Long expiresAt = revoked.get(key);
+    return expiresAt != null && expiresAt > System.currentTimeMillis();
+  }
+
+  /**
+   * Drop the tokens of the buckets whose time has passed, meant to be called every {@code bucket-duration}.
+   */
+  public synchronized void advance() {
+    long now = System.currentTimeMillis();
+    long current = now / bucketDuration;
+    while (cursor < current) {
+      int slot = (int) (cursor % wheel.size());
+      Set<String> bucket = wheel.set(slot, new HashSet<>());
+      for (String key : bucket) {
+        Long expiresAt = revoked.get(key);
+        if (expiresAt == null) {
+          continue;
+        }
+        if (expiresAt <= now) {
+          revoked.remove(key);
+        } else {
+          // filed here because it expires beyond the wheel
+          file(key, expiresAt, now);
+        }
+      }
+      cursor++;
+    }
+  }
+
+  public int size() {
+    return revoked.size();
+  }
+
+  private void file(String key, long expiresAt, long now) {
+    long horizon = now + (wheel.size() - 1) * bucketDuration;
+    long bucket = Math.min(expiresAt, horizon) / bucketDuration;
+    wheel.get((int) (bucket % wheel.size())).add(key);
+  }
+}
@@ -1,15 +1,41 @@
 package io.vertx.stackoverflow.user.impl;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.mongodb.MongoException;
+
+import org.bson.types.ObjectId;
+
+import io.vertx.circuitbreaker.CircuitBreaker;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
 import io.vertx.ext.auth.jwt.JWTAuth;
 import io.vertx.ext.auth.jwt.JWTOptions;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.mongo.MongoClientDeleteResult;
+import io.vertx.ext.mongo.MongoClientUpdateResult;
 import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.mongo.UpdateOptions;
+import io.vertx.ext.mongo.WriteOption;
 import io.vertx.stackoverflow.user.User;
 import io.vertx.stackoverflow.user.UserService;
+import io.vertx.stackoverflow.user.UserServiceException;
+import io.vertx.stackoverflow.user.UserView;
+import io.vertx.stackoverflow.user.metrics.MetricsRegistry;
 
 /**
  * Created by napal on 25/06/17.
@@ -17,15 +43,154 @@ import io.vertx.stackoverflow.user.UserService;
 public class UserServiceImpl implements UserService {
 
   private static final String COLLECTION = "users";
+  private static final int DUPLICATE_KEY = 11000;
+  // login also needs the password to check it
+  private static final JsonObject LOGIN_FIELDS = UserView.FIELDS.copy().put("password", 1);
+  private static final JsonObject USERNAME_ORDER = new JsonObject().put("username", 1);
+
+  private static Logger logger = LoggerFactory.getLogger(UserServiceImpl.class);
+
   private final MongoClient mongoClient;
+  // lookups and listings, the primary client too unless reads go to secondaries
+  private final MongoClient readClient;
+  // write concern of the writes by operation, null for the one of the client
+  private final Map<String, WriteOption> writeOptions = new HashMap<>();
+  private final PasswordHasher passwordHasher;
+  private final TokenRevocationStore revocationStore;
+  // claims of the tokens whose signature has already been verified, by token hash
+  private final ExpiringLruCache<String, JsonObject> verifiedTokens;
+  private final long tokenExpiresInSeconds;
   private JWTAuth authProvider;
 
+  // mongo operations, run through the circuit breaker
+  private final MongoGuard.Operation addUserOperation;
+  private final MongoGuard.Operation addUsersOperation;
+  private final MongoGuard.Operation listUsersOperation;
+  private final MongoGuard.Operation loginUserOperation;
+  private final MongoGuard.Operation rehashPasswordOperation;
+  private final MongoGuard.Operation deleteUserOperation;
+  private final MongoGuard.Operation retrieveUserOperation;
+  private final MongoGuard.Operation retrieveUsersOperation;
+  private final MongoGuard.Operation updateUserOperation;
+
   public UserServiceImpl(Vertx vertx, JsonObject config) {
-    this.mongoClient = MongoClient.createShared(vertx, getMongoDbConfig(config));
+    this(vertx, config, new MetricsRegistry(), CircuitBreaker.create("user-mongo", vertx));
+  }
+
+  /**
+   * @param breaker circuit breaker the Mongo operations run through
+   */
+  public UserServiceImpl(Vertx vertx, JsonObject config, MetricsRegistry metrics, CircuitBreaker breaker) {
+    JsonObject mongoOptions = config.getJsonObject("mongo") != null ? config.getJsonObject("mongo") : new JsonObject();
+    JsonObject mongoConfig = getMongoDbConfig(config, mongoOptions);
+    this.mongoClient = MongoClient.createShared(vertx, mongoConfig);
+    String readPreference = mongoOptions.getString("read-preference", "primary");
+    if ("primary".equals(readPreference)) {
+      this.readClient = mongoClient;
+    } else {
+      // a pool of its own, so reads can't starve writes and logins of connections
+      this.readClient = MongoClient.createShared(vertx, getReadConfig(mongoConfig, readPreference,
+        mongoOptions.getInteger("max-staleness", 90)), "user-mongo-reads");
+    }
+    JsonObject writeConcerns = mongoOptions.getJsonObject("write-concerns") != null ?
+      mongoOptions.getJsonObject("write-concerns") : new JsonObject();
+    writeConcerns.forEach(entry -> writeOptions.put(entry.getKey(), WriteOption.valueOf((String) entry.getValue())));
+    this.passwordHasher = new PasswordHasher(vertx, config.getJsonObject("password-hashing") != null ?
+      config.getJsonObject("password-hashing") : new JsonObject());
+    JsonObject jwtOptions = config.getJsonObject("jwt") != null ? config.getJsonObject("jwt") : new JsonObject();
+    this.tokenExpiresInSeconds = jwtOptions.getLong("expires-in-seconds", 3600L);
+    this.revocationStore = new TokenRevocationStore(jwtOptions);
+    this.verifiedTokens = new ExpiringLruCache<>(jwtOptions.getInteger("cache-size", 10000),
+      tokenExpiresInSeconds * 1000);
+    vertx.setPeriodic(jwtOptions.getLong("bucket-duration", 1000L), id -> revocationStore.advance());
     initAuthProvider(vertx);
+
+    MongoGuard mongo = new MongoGuard(vertx, breaker, config.getJsonObject("circuit-breaker") != null ?
+      config.getJsonObject("circuit-breaker") : new JsonObject(), metrics);
+    addUserOperation = mongo.operation("add_user");
+    addUsersOperation = mongo.operation("add_users");
+    listUsersOperation = mongo.operation("list_users");
+    loginUserOperation = mongo.operation("login_user");
+    rehashPasswordOperation = mongo.operation("rehash_password");
+    deleteUserOperation = mongo.operation("delete_user");
+    retrieveUserOperation = mongo.operation("retrieve_user");
+    retrieveUsersOperation = mongo.operation("retrieve_users");
+    updateUserOperation = mongo.operation("update_user");
+    registerMetrics(metrics);
+
+    ensureIndexes();
   }
 
-  private JsonObject getMongoDbConfig(JsonObject config) {
+  private void registerMetrics(MetricsRegistry metrics) {
+    metrics.gauge("user_password_hashing_queued", "", "Password operations waiting for a hashing thread",
+      passwordHasher::queueDepth);
+    metrics.counter("user_password_hashing_rejected_total", "", "Password operations rejected by the full queue",
+      () -> passwordHasher.stats().getLong("rejected"));
+    metrics.gauge("user_revoked_tokens", "", "Revoked tokens not expired yet", revocationStore::size);
+    metrics.counter("user_token_cache_hits_total", "", "Verified token cache hits", verifiedTokens::hits);
+    metrics.counter("user_token_cache_misses_total", "", "Verified token cache misses", verifiedTokens::misses);
+  }
+
+  /**
+   * @return the listings and lookups of users on the primary, which unlike the ones of this service never miss the
+   * latest writes
+   */
+  public UserSource primaryReads() {
+    return new UserSource() {
+      @Override
+      public void listUsers(String after, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+        UserServiceImpl.this.listUsers(mongoClient, after, limit, resultHandler);
+      }
+
+      @Override
+      public void retrieveUser(String username, Handler<AsyncResult<JsonObject>> resultHandler) {
+        UserServiceImpl.this.retrieveUser(mongoClient, username, resultHandler);
+      }
+    };
+  }
+
+  /**
+   * Ping the Mongo server.
+   */
+  public void ping(Handler<AsyncResult<Void>> resultHandler) {
+    mongoClient.runCommand("ping", new JsonObject().put("ping", 1), asyncResult -> {
+      if (asyncResult.succeeded()) {
+        resultHandler.handle(Future.succeededFuture());
+      } else {
+        resultHandler.handle(Future.failedFuture(asyncResult.cause()));
+      }
+    });
+  }
+
+  /**
+   * @return the number of password operations waiting for a hashing thread
+   */
+  public int hashingQueueDepth() {
+    return passwordHasher.queueDepth();
+  }
+
+  private void ensureIndexes() {
+    JsonObject command = new JsonObject()
+      .put("createIndexes", COLLECTION)
+      .put("indexes", new JsonArray().add(new JsonObject()
+        .put("key", new JsonObject().put("username", 1))
+        .put("name", "username_unique")
+        .put("unique", true)));
+    mongoClient.runCommand("createIndexes", command, asyncResult -> {
+      if (asyncResult.failed()) {
+        logger.error("Unable to create the unique username index", asyncResult.cause());
+      }
+    });
+  }
+
+  static boolean isDuplicateKey(Throwable cause) {
+    return cause instanceof MongoException && ((MongoException) cause).getCode() == DUPLICATE_KEY;
+  }
+
+  /**
+   * @param mongoOptions pool sizing and write concern of the client
+   */
+  private static JsonObject getMongoDbConfig(JsonObject config, JsonObject mongoOptions) {
     String uri = config.getString("mongo_uri");
     if (uri == null) {
       // running locally using local mongo db
@@ -42,13 +207,98 @@ public class UserServiceImpl implements UserService {
       dbName = "cmad";
     }
 
+    // pool sizing in the connection string, as the client ignores the pool options of the config when it has one
+    StringBuilder poolOptions = new StringBuilder();
+    appendOption(mongoOptions, "max-pool-size", poolOptions, "maxPoolSize");
+    appendOption(mongoOptions, "min-pool-size", poolOptions, "minPoolSize");
+    appendOption(mongoOptions, "max-idle-time", poolOptions, "maxIdleTimeMS");
+    appendOption(mongoOptions, "max-life-time", poolOptions, "maxLifeTimeMS");
+    appendOption(mongoOptions, "wait-queue-multiple", poolOptions, "waitQueueMultiple");
+    appendOption(mongoOptions, "wait-queue-timeout", poolOptions, "waitQueueTimeoutMS");
+    if (poolOptions.length() > 0) {
+      uri = withOptions(uri, poolOptions.toString());
+    }
+
     JsonObject mongoConfig = new JsonObject()
       .put("connection_string", uri)
       .put("db_name", dbName);
 
+    // default write concern, e.g. "w": "majority", unless the connection string has one
+    copyOption(mongoOptions, "w", mongoConfig, "w");
+    copyOption(mongoOptions, "write-timeout", mongoConfig, "wtimeoutMS");
+    copyOption(mongoOptions, "journal", mongoConfig, "j");
+
     return mongoConfig;
   }
 
+  /**
+   * Config of the client of the reads, with the read preference and maximum staleness in its connection string as
+   * the client only takes the staleness from there.
+   *
+   * @param maxStaleness maximum replication lag in seconds of the secondaries read from, at least 90
+   */
+  private static JsonObject getReadConfig(JsonObject mongoConfig, String readPreference, int maxStaleness) {
+    String uri = withOptions(mongoConfig.getString("connection_string"), "readPreference=" + readPreference +
+      "&maxStalenessSeconds=" + maxStaleness);
+    return mongoConfig.copy().put("connection_string", uri);
+  }
+
+  /**
+   * @return the connection string with the given query options appended, the last value of an option being the one
+   * the client takes
+   */
+  private static String withOptions(String uri, String options) {
+    if (uri.contains("?")) {
+      return uri + "&" + options;
+    } else if (uri.indexOf('/', "mongodb://".length()) >= 0) {
+      return uri + "?" + options;
+    } else {
+      return uri + "/?" + options;
+    }
+  }
+
+  private static void appendOption(JsonObject from, String name, StringBuilder options, String uriName) {
+    if (from.containsKey(name)) {
+      if (options.length() > 0) {
+        options.append('&');
+      }
+      options.append(uriName).append('=').append(from.getValue(name));
+    }
+  }
+
+  private static void copyOption(JsonObject from, String name, JsonObject to, String clientName) {
+    if (from.containsKey(name)) {
+      to.put(clientName, from.getValue(name));
+    }
+  }
+
+  /**
+   * @return the write concern of the insert command of the operation, {@code null} for the default one
+   */
+  private JsonObject writeConcern(String operation) {
+    WriteOption option = writeOptions.get(operation);
+    if (option == null) {
+      return null;
+    }
+    switch (option) {
+      case UNACKNOWLEDGED:
+        return new JsonObject().put("w", 0);
+      case ACKNOWLEDGED:
+        return new JsonObject().put("w", 1);
+      case REPLICA_ACKNOWLEDGED:
+        return new JsonObject().put("w", 2);
+      case MAJORITY:
+        return new JsonObject().put("w", "majority");
+      default:
+        // JOURNALED and FSYNCED, the latter being journaled writes on current servers
+        return new JsonObject().put("w", 1).put("j", true);
+    }
+  }
+
+  private UpdateOptions updateOptions(String operation) {
+    return new UpdateOptions().setWriteOption(writeOptions.get(operation));
+  }
+
   private void initAuthProvider(Vertx vertx) {
     JsonObject conf = new JsonObject().put("keyStore", new JsonObject()
       .put("path", "keystore.jceks")
@@ -60,162 +310,433 @@ public class UserServiceImpl implements UserService {
 
   @Override
   public void addUser(User user, Handler<AsyncResult<JsonObject>> resultHandler) {
+    passwordHasher.hash(user.getPassword(), hashResult -> {
+      if (hashResult.failed()) {
+        resultHandler.handle(Future.failedFuture(hashResult.cause()));
+        return;
+      }
+      // the unique username index rejects concurrent signups of the same user
+      insertUser(newUserDocument(user, hashResult.result()), user.getUsername(), resultHandler);
+    });
+  }
 
-    System.out.println("Entered retrieveUser " + user.getUsername());
-    // find if the user already exists
-    JsonObject query = new JsonObject().put("username", user.getUsername());
-    mongoClient.findOne(COLLECTION, query, new JsonObject(),
-      asyncResult1 -> {
-        if (asyncResult1.succeeded()) {
-          if (asyncResult1.result() == null) {
-            // add user
-            mongoClient.save(COLLECTION, new JsonObject().put("username", user.getUsername())
-                .put("password", user.getPassword())
-                .put("email", user.getEmail())
-                .put("firstName", user.getFirstName())
-                .put("lastName", user.getLastName())
-                .put("phone", user.getPhone()),
-              asyncResult2 -> {
-                if (asyncResult2.succeeded()) {
-                  JsonObject result = new JsonObject().put("message", "user added successfully")
-                    .put("username", user.getUsername());
-                  resultHandler.handle(Future.succeededFuture(result));
-                } else {
-                  String failureMessage = "User can't be added :"  + user.getUsername();
-                  resultHandler.handle(Future.failedFuture(asyncResult2.cause()));
-                }
-              });
+  private void insertUser(JsonObject document, String username, Handler<AsyncResult<JsonObject>> resultHandler) {
+    addUserOperation.<String>execute(
+      handler -> mongoClient.insertWithOptions(COLLECTION, document, writeOptions.get("add_user"), handler),
+      asyncResult -> {
+        if (asyncResult.succeeded()) {
+          JsonObject result = new JsonObject().put("message", "user added successfully")
+            .put("username", username);
+          resultHandler.handle(Future.succeededFuture(result));
+        } else if (isDuplicateKey(asyncResult.cause())) {
+          resultHandler.handle(Future.failedFuture(new UserServiceException(UserServiceException.CONFLICT,
+            "Username already exists : " + username)));
+        } else {
+          resultHandler.handle(Future.failedFuture(asyncResult.cause()));
+        }
+      });
+  }
+
+  @Override
+  public void addUsers(List<User> users, Handler<AsyncResult<JsonArray>> resultHandler) {
+    List<String> passwords = new ArrayList<>(users.size());
+    users.forEach(user -> passwords.add(user.getPassword()));
+    passwordHasher.hashAll(passwords, hashResult -> {
+      if (hashResult.failed()) {
+        resultHandler.handle(Future.failedFuture(hashResult.cause()));
+        return;
+      }
+      JsonArray documents = new JsonArray();
+      for (int i = 0; i < users.size(); i++) {
+        documents.add(newUserDocument(users.get(i), hashResult.result().get(i)));
+      }
+      insertUsers(users, documents, resultHandler);
+    });
+  }
+
+  private void insertUsers(List<User> users, JsonArray documents, Handler<AsyncResult<JsonArray>> resultHandler) {
+    // a single unordered insert command, so a duplicate doesn't stop the rest of the batch
+    JsonObject command = new JsonObject()
+      .put("insert", COLLECTION)
+      .put("documents", documents)
+      .put("ordered", false);
+    JsonObject writeConcern = writeConcern("add_users");
+    if (writeConcern != null) {
+      command.put("writeConcern", writeConcern);
+    }
+    addUsersOperation.<JsonObject>execute(
+      handler -> mongoClient.runCommand("insert", command, handler),
+      asyncResult -> {
+        if (asyncResult.failed()) {
+          resultHandler.handle(Future.failedFuture(asyncResult.cause()));
+          return;
+        }
+        Map<Integer, JsonObject> errors = new HashMap<>();
+        JsonArray writeErrors = asyncResult.result().getJsonArray("writeErrors", new JsonArray());
+        for (int i = 0; i < writeErrors.size(); i++) {
+          JsonObject error = writeErrors.getJsonObject(i);
+          errors.put(error.getInteger("index"), error);
+        }
+
+        JsonArray results = new JsonArray();
+        for (int i = 0; i < users.size(); i++) {
+          JsonObject result = new JsonObject().put("username", users.get(i).getUsername());
+          JsonObject error = errors.get(i);
+          if (error == null) {
+            result.put("status", 201);
+          } else if (error.getInteger("code") == DUPLICATE_KEY) {
+            result.put("status", UserServiceException.CONFLICT).put("error", "Username already exists");
           } else {
-            String failureMessage = "Username already exists :"  + user.getUsername();
-            resultHandler.handle(Future.failedFuture(asyncResult1.cause()));
+            result.put("status", 500).put("error", error.getString("errmsg"));
           }
-        } else {
-          mongoClient.save(COLLECTION, new JsonObject().put("username", user.getUsername())
-              .put("password", user.getPassword())
-              .put("firstName", user.getFirstName())
-              .put("lastName", user.getLastName())
-              .put("phone", user.getPhone()),
-            asyncResult2 -> {
-              if (asyncResult2.succeeded()) {
-                JsonObject result = new JsonObject().put("message", "user added successfully")
-                  .put("username", user.getUsername());
-                resultHandler.handle(Future.succeededFuture(result));
-              } else {
-                String failureMessage = "User can't be added :"  + user.getUsername();
-                resultHandler.handle(Future.failedFuture(asyncResult2.cause()));
-              }
-            });
+          results.add(result);
         }
+        resultHandler.handle(Future.succeededFuture(results));
       });
+  }
 
+  @Override
+  public void listUsers(String after, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    listUsers(readClient, after, limit, resultHandler);
+  }
 
+  private void listUsers(MongoClient client, String after, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    // keyset pagination on the unique username index, no skip
+    JsonObject query = after == null ? new JsonObject() :
+      new JsonObject().put("username", new JsonObject().put("$gt", after));
+    FindOptions options = new FindOptions()
+      .setFields(UserView.FIELDS)
+      .setSort(USERNAME_ORDER)
+      .setLimit(limit);
+    listUsersOperation.<List<JsonObject>>execute(
+      handler -> client.findWithOptions(COLLECTION, query, options, handler),
+      asyncResult -> {
+        if (asyncResult.succeeded()) {
+          resultHandler.handle(Future.succeededFuture(new JsonArray(asyncResult.result())));
+        } else {
+          resultHandler.handle(Future.failedFuture(asyncResult.cause()));
+        }
+      });
   }
 
   @Override
   public void loginUser(String username, String password, Handler<AsyncResult<JsonObject>> resultHandler) {
     JsonObject query = new JsonObject().put("username", username);
-    mongoClient.findOne(COLLECTION, query, null,
+    loginUserOperation.<JsonObject>execute(
+      handler -> mongoClient.findOne(COLLECTION, query, LOGIN_FIELDS, handler),
       asyncResult -> {
-        if (asyncResult.succeeded()) {
-          if (asyncResult.result() != null) {
-            JsonObject json = asyncResult.result();
-            if (username.equals(json.getString("username")) && password.equals(json.getString("password"))) {
+        if (asyncResult.failed()) {
+          resultHandler.handle(Future.failedFuture(asyncResult.cause()));
+        } else if (asyncResult.result() == null) {
+          passwordHasher.verifyUnknown(password, verifyResult -> resultHandler.handle(Future.failedFuture(
+            verifyResult.failed() ? verifyResult.cause() : invalidCredentials())));
+        } else {
+          JsonObject json = asyncResult.result();
+          String stored = json.getString("password");
+          passwordHasher.verify(password, stored, verifyResult -> {
+            if (verifyResult.failed()) {
+              resultHandler.handle(Future.failedFuture(verifyResult.cause()));
+            } else if (!verifyResult.result()) {
+              resultHandler.handle(Future.failedFuture(invalidCredentials()));
+            } else {
+              if (passwordHasher.needsRehash(stored)) {
+                rehashPassword(username, password, stored);
+              }
               // Generate JWT token for user and send as part of user info
               String token = generateAuthToken(json);
-              System.out.println("JWT token generated for user " + username);
-              json.put("Authorization", token);
-              resultHandler.handle(Future.succeededFuture(json));
-            } else {
-              resultHandler.handle(Future.failedFuture(asyncResult.cause()));
+              JsonObject result = new UserView(json).toJson().put("Authorization", token);
+              resultHandler.handle(Future.succeededFuture(result));
             }
-          } else {
-            resultHandler.handle(Future.failedFuture(asyncResult.cause()));
-          }
-        } else {
-          resultHandler.handle(Future.failedFuture(asyncResult.cause()));
+          });
         }
+      });
+  }
+
+  /**
+   * Replace a plain text or weaker hash of a password, once it has been verified on login.
+   */
+  private void rehashPassword(String username, String password, String stored) {
+    passwordHasher.hash(password, hashResult -> {
+      if (hashResult.failed()) {
+        logger.warn("Unable to rehash the password of " + username, hashResult.cause());
+        return;
       }
-    );
+      // unless the password has been changed in the meantime
+      JsonObject query = new JsonObject().put("username", username).put("password", stored);
+      JsonObject update = new JsonObject().put("$set", new JsonObject().put("password", hashResult.result()));
+      rehashPasswordOperation.<MongoClientUpdateResult>execute(
+        handler -> mongoClient.updateCollectionWithOptions(COLLECTION, query, update,
+          updateOptions("rehash_password"), handler),
+        asyncResult -> {
+          if (asyncResult.failed()) {
+            logger.warn("Unable to rehash the password of " + username, asyncResult.cause());
+          }
+        });
+    });
+  }
+
+  private static UserServiceException invalidCredentials() {
+    return new UserServiceException(UserServiceException.UNAUTHORIZED, "Invalid username or password");
   }
 
   @Override
   public void deleteUser(String username, Handler<AsyncResult<Void>> resultHandler) {
-    System.out.println("Entered deleteUser " + username);
-
     JsonObject query = new JsonObject().put("username", username);
-    mongoClient.removeDocument(COLLECTION, query,
+    deleteUserOperation.<MongoClientDeleteResult>execute(
+      handler -> mongoClient.removeDocumentWithOptions(COLLECTION, query, writeOptions.get("delete_user"), handler),
       asyncResult -> {
         if (asyncResult.succeeded()) {
           resultHandler.handle(Future.succeededFuture());
         } else {
           resultHandler.handle(Future.failedFuture(asyncResult.cause()));
         }
-      }
-    );
+      });
   }
 
   @Override
   public void retrieveUser(String username, Handler<AsyncResult<JsonObject>> resultHandler) {
-    System.out.println("Entered retrieveUser " + username);
+    retrieveUser(readClient, username, resultHandler);
+  }
 
+  private void retrieveUser(MongoClient client, String username, Handler<AsyncResult<JsonObject>> resultHandler) {
     JsonObject query = new JsonObject().put("username", username);
-    mongoClient.findOne(COLLECTION, query, null,
+    retrieveUserOperation.<JsonObject>execute(
+      handler -> client.findOne(COLLECTION, query, UserView.FIELDS, handler),
       asyncResult -> {
-      if (asyncResult.succeeded()) {
-        if (asyncResult.result() != null) {
-          JsonObject user = asyncResult.result();
-          resultHandler.handle(Future.succeededFuture(user));
+        if (asyncResult.succeeded()) {
+          // a null result means the user doesn't exist
+          resultHandler.handle(Future.succeededFuture(asyncResult.result()));
+        } else {
+          resultHandler.handle(Future.failedFuture(asyncResult.cause()));
+        }
+      });
+  }
+
+  @Override
+  public void retrieveUsers(List<String> usernames, Handler<AsyncResult<JsonArray>> resultHandler) {
+    JsonObject query = new JsonObject().put("username", new JsonObject().put("$in", new JsonArray(usernames)));
+    FindOptions options = new FindOptions().setFields(UserView.FIELDS);
+    retrieveUsersOperation.<List<JsonObject>>execute(
+      handler -> readClient.findWithOptions(COLLECTION, query, options, handler),
+      asyncResult -> {
+        if (asyncResult.succeeded()) {
+          resultHandler.handle(Future.succeededFuture(new JsonArray(asyncResult.result())));
+        } else {
+          resultHandler.handle(Future.failedFuture(asyncResult.cause()));
         }
+      });
+  }
+
+  @Override
+  public void logoutUser(String token, Handler<AsyncResult<Void>> resultHandler) {
+    authenticate(token, ar -> {
+      if (ar.succeeded()) {
+        JsonObject claims = ar.result();
+        // tokens are revoked until they expire, after that they are rejected anyway
+        long expiresAt = claims.containsKey("exp") ? claims.getLong("exp") * 1000 :
+          System.currentTimeMillis() + tokenExpiresInSeconds * 1000;
+        revocationStore.revoke(revocationKey(sha256(token), claims), expiresAt);
+        resultHandler.handle(Future.succeededFuture());
       } else {
-        resultHandler.handle(Future.failedFuture(asyncResult.cause()));
+        resultHandler.handle(Future.failedFuture(ar.cause()));
       }
     });
   }
 
   @Override
-  public void logoutUser(Handler<AsyncResult<Void>> resultHandler) {
+  public void authenticate(String token, Handler<AsyncResult<JsonObject>> resultHandler) {
+    String tokenHash = sha256(token);
+    JsonObject cached = verifiedTokens.get(tokenHash);
+    if (cached != null) {
+      // the signature is known to be valid, only the revocation can have changed
+      if (revocationStore.isRevoked(revocationKey(tokenHash, cached))) {
+        resultHandler.handle(Future.failedFuture(invalidToken()));
+      } else {
+        resultHandler.handle(Future.succeededFuture(cached.copy()));
+      }
+      return;
+    }
+    authProvider.authenticate(new JsonObject().put("jwt", token), ar -> {
+      if (ar.failed()) {
+        resultHandler.handle(Future.failedFuture(invalidToken()));
+        return;
+      }
+      JsonObject claims = ar.result().principal();
+      if (revocationStore.isRevoked(revocationKey(tokenHash, claims))) {
+        resultHandler.handle(Future.failedFuture(invalidToken()));
+        return;
+      }
+      // never cache a token past its expiration
+      if (claims.containsKey("exp")) {
+        verifiedTokens.put(tokenHash, claims.copy(), claims.getLong("exp") * 1000);
+      } else {
+        verifiedTokens.put(tokenHash, claims.copy());
+      }
+      resultHandler.handle(Future.succeededFuture(claims));
+    });
+  }
 
+  /**
+   * @return the revoked tokens of this node
+   */
+  public TokenRevocationStore revocationStore() {
+    return revocationStore;
+  }
+
+  /**
+   * @return the hit and miss counters of the verified tokens cache
+   */
+  public JsonObject tokenCacheStats() {
+    long hits = verifiedTokens.hits();
+    long lookups = hits + verifiedTokens.misses();
+    return new JsonObject()
+      .put("size", verifiedTokens.size())
+      .put("hits", hits)
+      .put("misses", verifiedTokens.misses())
+      .put("hit-rate", lookups == 0 ? 0.0 : (double) hits / lookups);
+  }
+
+  /**
+   * Tokens are revoked by id, tokens issued without one by the hash of the token.
+   */
+  private static String revocationKey(String tokenHash, JsonObject claims) {
+    String jti = claims.getString("jti");
+    return jti != null ? jti : tokenHash;
+  }
+
+  private static String sha256(String value) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+      return Base64.getEncoder().encodeToString(digest);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
 
+  private static UserServiceException invalidToken() {
+    return new UserServiceException(UserServiceException.UNAUTHORIZED, "Invalid token");
   }
 
   @Override
   public void updateUser(String username, User user, Handler<AsyncResult<Void>> resultHandler) {
+    passwordHasher.hash(user.getPassword(), hashResult -> {
+      if (hashResult.failed()) {
+        resultHandler.handle(Future.failedFuture(hashResult.cause()));
+      } else {
+        saveUser(username, user, hashResult.result(), false, resultHandler);
+      }
+    });
+  }
+
+  @Override
+  public void patchUser(String username, User changes, Handler<AsyncResult<Void>> resultHandler) {
+    if (changes.getPassword() == null) {
+      saveUser(username, changes, null, true, resultHandler);
+      return;
+    }
+    passwordHasher.hash(changes.getPassword(), hashResult -> {
+      if (hashResult.failed()) {
+        resultHandler.handle(Future.failedFuture(hashResult.cause()));
+      } else {
+        saveUser(username, changes, hashResult.result(), true, resultHandler);
+      }
+    });
+  }
+
+  /**
+   * Apply the fields of a user with a single update, guarded by its version when it has one.
+   *
+   * @param partial whether the {@code null} fields are left as they are rather than removed
+   */
+  private void saveUser(String username, User user, String passwordHash, boolean partial,
+                        Handler<AsyncResult<Void>> resultHandler) {
+    JsonObject set = new JsonObject();
+    JsonObject unset = new JsonObject();
+    setField(set, unset, partial, "password", passwordHash);
+    setField(set, unset, partial, "email", user.getEmail());
+    setField(set, unset, partial, "firstName", user.getFirstName());
+    setField(set, unset, partial, "lastName", user.getLastName());
+    setField(set, unset, partial, "phone", user.getPhone());
+    // every write bumps the version, so concurrent writers of the same version can't both succeed
+    JsonObject update = new JsonObject().put("$inc", new JsonObject().put("version", 1));
+    if (!set.isEmpty()) {
+      update.put("$set", set);
+    }
+    if (!unset.isEmpty()) {
+      update.put("$unset", unset);
+    }
+
     JsonObject query = new JsonObject().put("username", username);
-    JsonObject userJson = new JsonObject().put("username", username)
-      .put("password", user.getPassword())
-      .put("email", user.getEmail())
-      .put("firstName", user.getFirstName())
-      .put("lastName", user.getLastName())
-      .put("phone", user.getPhone());
-
-    mongoClient.findOne(COLLECTION, query, null,
+    if (user.getVersion() != null) {
+      query.put("version", versionQuery(user.getVersion()));
+    }
+    updateUserOperation.<MongoClientUpdateResult>execute(
+      handler -> mongoClient.updateCollectionWithOptions(COLLECTION, query, update, updateOptions("update_user"),
+        handler),
       asyncResult -> {
-        if (asyncResult.succeeded()) {
-          if (asyncResult.result() == null) {
-            JsonObject existingUser = asyncResult.result();
-            String userId = existingUser.getString("_id");
-            userJson.put("_id", userId);
-            mongoClient.save(COLLECTION, userJson,
-              asyncResult1 -> {
-                if (asyncResult.succeeded()) {
-                  resultHandler.handle(Future.succeededFuture());
-                } else {
-                  resultHandler.handle(Future.failedFuture(asyncResult1.cause()));
-                }
-              });
-          }
-        } else {
+        if (asyncResult.failed()) {
           resultHandler.handle(Future.failedFuture(asyncResult.cause()));
+        } else if (asyncResult.result().getDocMatched() > 0) {
+          resultHandler.handle(Future.succeededFuture());
+        } else if (user.getVersion() == null) {
+          resultHandler.handle(Future.failedFuture(userNotFound(username)));
+        } else {
+          // only on a miss: tell a user that doesn't exist from one that was changed meanwhile
+          updateUserOperation.<JsonObject>execute(
+            handler -> mongoClient.findOne(COLLECTION, new JsonObject().put("username", username),
+              new JsonObject().put("_id", 1), handler),
+            findResult -> {
+              if (findResult.failed()) {
+                resultHandler.handle(Future.failedFuture(findResult.cause()));
+              } else if (findResult.result() == null) {
+                resultHandler.handle(Future.failedFuture(userNotFound(username)));
+              } else {
+                resultHandler.handle(Future.failedFuture(new UserServiceException(UserServiceException.CONFLICT,
+                  "User " + username + " has been changed since version " + user.getVersion())));
+              }
+            });
         }
       });
   }
 
+  private static void setField(JsonObject set, JsonObject unset, boolean partial, String field, String value) {
+    if (value != null) {
+      set.put(field, value);
+    } else if (!partial) {
+      unset.put(field, "");
+    }
+  }
+
+  /**
+   * Users never updated have no version, they are at version 0.
+   */
+  private static Object versionQuery(long version) {
+    return version == 0 ? new JsonObject().put("$in", new JsonArray().add(0).addNull()) : version;
+  }
+
+  /**
+   * New users start without a version, whatever version they were given. Their {@code _id} is set here, as the
+   * client does for a single insert, so users added in bulk get the same kind of string id.
+   */
+  private static JsonObject newUserDocument(User user, String passwordHash) {
+    JsonObject document = user.toJson()
+      .put("_id", new ObjectId().toHexString())
+      .put("password", passwordHash);
+    document.remove("version");
+    return document;
+  }
+
+  private static UserServiceException userNotFound(String username) {
+    return new UserServiceException(UserServiceException.NOT_FOUND, "User " + username + " not found");
+  }
+
   private String generateAuthToken(JsonObject user) {
     JsonObject tokenJson = new JsonObject().
       put("sub", user.getString("username")).
       put("firstName", user.getString("firstName")).
-      put("lastName", user.getString("lastName"));
-    return authProvider.generateToken(tokenJson, new JWTOptions());
+      put("lastName", user.getString("lastName")).
+      put("jti", UUID.randomUUID().toString());
+    return authProvider.generateToken(tokenJson, new JWTOptions().setExpiresInSeconds(tokenExpiresInSeconds));
   }
 
 
@@ -0,0 +1,32 @@
+package io.vertx.stackoverflow.user.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.stackoverflow.user.UserService;
+
+/**
+ * Reads the in-memory indexes of the users are loaded and refreshed from, as {@link UserService#listUsers} and
+ * {@link UserService#retrieveUser}.
+ */
+public interface UserSource {
+
+  static UserSource of(UserService service) {
+    return new UserSource() {
+      @Override
+      public void listUsers(String after, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+        service.listUsers(after, limit, resultHandler);
+      }
+
+      @Override
+      public void retrieveUser(String username, Handler<AsyncResult<JsonObject>> resultHandler) {
+        service.retrieveUser(username, resultHandler);
+      }
+    };
+  }
+
+  void listUsers(String after, int limit, Handler<AsyncResult<JsonArray>> resultHandler);
+
+  void retrieveUser(String username, Handler<AsyncResult<JsonObject>> resultHandler);
+}
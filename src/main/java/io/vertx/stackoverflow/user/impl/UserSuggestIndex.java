@@ -0,0 +1,218 @@
+package io.vertx.stackoverflow.user.impl;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.stackoverflow.user.metrics.MetricsRegistry;
+
+/**
+ * In-memory index of the users by prefix of their username, first name and last name, for autocompletion.
+ * <p>
+ * Terms are matched case insensitively. At most {@code max-users} users are indexed, the users created beyond it are
+ * left out so the memory of the index stays bounded. Lookups take no lock, so they never wait for writes or loads and
+ * can run on the event loops; writes are serialized with each other, one user at a time.
+ * <p>
+ * A reload builds a new index next to the current one, which keeps serving lookups, and replaces it once complete, so
+ * users gone from the source are dropped. Writes go to both meanwhile, so memory doubles while reloading.
+ */
+public class UserSuggestIndex {
+
+  private static final int MAX_TERM_LENGTH = 64;
+
+  /**
+   * Indexed fields of a user.
+   */
+  private static final class Entry {
+    private final String firstName;
+    private final String lastName;
+
+    private Entry(String firstName, String lastName) {
+      this.firstName = firstName;
+      this.lastName = lastName;
+    }
+  }
+
+  /**
+   * Trie and indexed users of a generation of the index.
+   */
+  private final class Snapshot {
+    private final RadixTrie trie = new RadixTrie();
+    // written under the lock of the index, read without it
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private void index(String username, Entry entry) {
+      if (username == null) {
+        return;
+      }
+      Entry previous = entries.get(username);
+      if (previous == null && entries.size() >= maxUsers) {
+        dropped.increment();
+        return;
+      }
+      if (previous != null) {
+        forEachTerm(username, previous, term -> trie.remove(term, username));
+      }
+      entries.put(username, entry);
+      forEachTerm(username, entry, term -> trie.put(term, username));
+    }
+
+    private void unindex(String username) {
+      Entry previous = entries.remove(username);
+      if (previous != null) {
+        forEachTerm(username, previous, term -> trie.remove(term, username));
+      }
+    }
+  }
+
+  private final int maxUsers;
+  private final LongAdder dropped = new LongAdder();
+
+  // written under the lock of the index, read without it
+  private volatile Snapshot current = new Snapshot();
+  // index being loaded, the current one itself on the first load, guarded by the lock of the index as the rest
+  private Snapshot loading;
+  // users written while loading, the loaded copy of which may be older
+  private Set<String> changedWhileLoading;
+
+  public UserSuggestIndex(JsonObject config) {
+    this.maxUsers = config.getInteger("max-users", 1000000);
+  }
+
+  /**
+   * Index a user, or re-index it with its new names.
+   */
+  public synchronized void put(String username, String firstName, String lastName) {
+    write(username, new Entry(firstName, lastName));
+  }
+
+  /**
+   * Re-index a user with the names that aren't {@code null}, keeping the others.
+   */
+  public synchronized void patch(String username, String firstName, String lastName) {
+    Entry previous = current.entries.get(username);
+    // a user not indexed yet is left to the load, which may read it either before or after the patch
+    if (previous != null) {
+      write(username, new Entry(firstName != null ? firstName : previous.firstName,
+        lastName != null ? lastName : previous.lastName));
+    }
+  }
+
+  public synchronized void remove(String username) {
+    write(username, null);
+  }
+
+  /**
+   * Start loading the users, until {@link #endLoad}: loaded users never override the ones written meanwhile.
+   */
+  public synchronized void beginLoad() {
+    // the first load fills the empty index in place, so suggestions show up as it goes
+    loading = current.entries.isEmpty() ? current : new Snapshot();
+    changedWhileLoading = new HashSet<>();
+  }
+
+  /**
+   * Index a page of loaded user documents.
+   */
+  public void load(JsonArray users) {
+    for (int i = 0; i < users.size(); i++) {
+      JsonObject user = users.getJsonObject(i);
+      String username = user.getString("username");
+      Entry entry = new Entry(user.getString("firstName"), user.getString("lastName"));
+      // one user at a time, so a write never waits for a whole page
+      synchronized (this) {
+        if (changedWhileLoading == null || !changedWhileLoading.contains(username)) {
+          (loading != null ? loading : current).index(username, entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * Replace the index by the loaded one.
+   */
+  public synchronized void endLoad() {
+    if (loading != null) {
+      current = loading;
+    }
+    loading = null;
+    changedWhileLoading = null;
+  }
+
+  /**
+   * @return the users matching the prefix, as {@code username}, {@code firstName} and {@code lastName}
+   */
+  public JsonArray suggest(String prefix, int limit) {
+    Set<String> usernames = new LinkedHashSet<>();
+    JsonArray users = new JsonArray();
+    Snapshot snapshot = current;
+    snapshot.trie.collect(normalize(prefix), limit, usernames);
+    for (String username : usernames) {
+      Entry entry = snapshot.entries.get(username);
+      // removed since it was collected
+      if (entry != null) {
+        users.add(new JsonObject()
+          .put("username", username)
+          .put("firstName", entry.firstName)
+          .put("lastName", entry.lastName));
+      }
+    }
+    return users;
+  }
+
+  public int size() {
+    return current.entries.size();
+  }
+
+  /**
+   * Expose the size of the index in the given registry.
+   */
+  public void registerMetrics(MetricsRegistry metrics) {
+    metrics.gauge("user_suggest_index_users", "", "Users in the autocompletion index", this::size);
+    metrics.gauge("user_suggest_index_nodes", "", "Nodes of the autocompletion trie", () -> current.trie.nodes());
+    metrics.counter("user_suggest_index_dropped_total", "", "Users left out of the full autocompletion index",
+      dropped::sum);
+  }
+
+  /**
+   * @param entry the new fields of the user, {@code null} to remove it
+   */
+  private void write(String username, Entry entry) {
+    if (changedWhileLoading != null) {
+      changedWhileLoading.add(username);
+    }
+    write(current, username, entry);
+    if (loading != null && loading != current) {
+      write(loading, username, entry);
+    }
+  }
+
+  private static void write(Snapshot snapshot, String username, Entry entry) {
+    if (entry == null) {
+      snapshot.unindex(username);
+    } else {
+      snapshot.index(username, entry);
+    }
+  }
+
+  private static void forEachTerm(String username, Entry entry, Consumer<String> action) {
+    Set<String> terms = new HashSet<>(4);
+    for (String value : new String[] {username, entry.firstName, entry.lastName}) {
+      if (value != null && !value.isEmpty()) {
+        terms.add(normalize(value));
+      }
+    }
+    terms.forEach(action);
+  }
+
+  private static String normalize(String value) {
+    String term = value.toLowerCase(Locale.ROOT);
+    return term.length() > MAX_TERM_LENGTH ? term.substring(0, MAX_TERM_LENGTH) : term;
+  }
+}
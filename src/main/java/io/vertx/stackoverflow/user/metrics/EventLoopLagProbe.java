@@ -0,0 +1,56 @@
+package io.vertx.stackoverflow.user.metrics;
+
+import io.vertx.core.Vertx;
+
+/**
+ * Samples the lag of the event loop it is started on: a timer is set every {@code interval} milliseconds and the delay
+ * between its due time and the time it actually fires is recorded.
+ */
+public class EventLoopLagProbe {
+
+  private final Vertx vertx;
+  private final LatencyTimer lag;
+  private final long interval;
+  private volatile long lastLagNanos;
+  private volatile long nextDueNanos;
+
+  public EventLoopLagProbe(Vertx vertx, LatencyTimer lag, long interval) {
+    this.vertx = vertx;
+    this.lag = lag;
+    this.interval = interval;
+    this.nextDueNanos = System.nanoTime() + interval * 1_000_000;
+  }
+
+  /**
+   * Start sampling, must be called from the event loop to sample.
+   */
+  public void start() {
+    schedule();
+  }
+
+  /**
+   * @return the lag measured by the last sample, in nanoseconds
+   */
+  public long lastLagNanos() {
+    return lastLagNanos;
+  }
+
+  /**
+   * @return the lag of the last sample, or how late the pending sample already is when the loop is blocked, in
+   * nanoseconds
+   */
+  public long currentLagNanos() {
+    return Math.max(lastLagNanos, System.nanoTime() - nextDueNanos);
+  }
+
+  private void schedule() {
+    long due = System.nanoTime() + interval * 1_000_000;
+    nextDueNanos = due;
+    vertx.setTimer(interval, id -> {
+      long nanos = Math.max(0, System.nanoTime() - due);
+      lastLagNanos = nanos;
+      lag.record(nanos);
+      schedule();
+    });
+  }
+}
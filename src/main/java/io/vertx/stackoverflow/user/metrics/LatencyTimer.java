@@ -0,0 +1,143 @@
+package io.vertx.stackoverflow.user.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.HdrHistogram.AbstractHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.IntCountsHistogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latency histogram and in-flight counter of an operation.
+ * <p>
+ * Recording goes to an HdrHistogram {@link Recorder}, which is wait-free and doesn't allocate, so it can be used from
+ * any event loop. The quantiles are over the last minute, kept as six slices of ten seconds: scrapes move the values
+ * recorded since the previous one into the current slice and merge the slices into a histogram reused from scrape to
+ * scrape, so a regression shows within a minute however long the process has been up. Values count in the slice they
+ * are scraped in, so the window is only accurate to a scrape interval. The count and sum are cumulative.
+ */
+public class LatencyTimer {
+
+  private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+  // 1% precision is plenty for quantiles, and keeps the slices small
+  private static final int SIGNIFICANT_DIGITS = 2;
+  private static final int SLICES = 6;
+  private static final long SLICE_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private final String name;
+  private final String labels;
+  private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sumNanos = new LongAdder();
+  private final LongAdder inFlight = new LongAdder();
+  private final LongSupplier clock;
+
+  // guarded by this
+  private final AbstractHistogram[] slices = new AbstractHistogram[SLICES];
+  private final AbstractHistogram window = new IntCountsHistogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+  private Histogram interval;
+  // absolute index of the current slice
+  private long slice;
+
+  LatencyTimer(String name, String labels) {
+    this(name, labels, System::nanoTime);
+  }
+
+  /**
+   * @param clock time in nanoseconds the window moves with
+   */
+  LatencyTimer(String name, String labels, LongSupplier clock) {
+    this.name = name;
+    this.labels = labels;
+    this.clock = clock;
+    this.slice = Math.floorDiv(clock.getAsLong(), SLICE_NANOS);
+    for (int i = 0; i < SLICES; i++) {
+      slices[i] = new IntCountsHistogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+    }
+  }
+
+  /**
+   * Start timing an operation.
+   *
+   * @return the start time to pass to {@link #end(long)}
+   */
+  public long begin() {
+    inFlight.increment();
+    return System.nanoTime();
+  }
+
+  /**
+   * Record an operation started by {@link #begin()}.
+   */
+  public void end(long start) {
+    inFlight.decrement();
+    record(System.nanoTime() - start);
+  }
+
+  /**
+   * Record a duration measured elsewhere.
+   */
+  public void record(long nanos) {
+    long positive = Math.max(nanos, 0);
+    recorder.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(positive), HIGHEST_TRACKABLE_MICROS));
+    count.increment();
+    sumNanos.add(positive);
+  }
+
+  public long inFlight() {
+    return inFlight.sum();
+  }
+
+  String name() {
+    return name;
+  }
+
+  String labels() {
+    return labels;
+  }
+
+  /**
+   * @return the number of values recorded so far
+   */
+  long count() {
+    return count.sum();
+  }
+
+  /**
+   * @return the sum of the values recorded so far, in nanoseconds
+   */
+  long sumNanos() {
+    return sumNanos.sum();
+  }
+
+  /**
+   * @param quantiles quantiles between 0 and 1
+   * @return the values at the given quantiles over the last minute, in microseconds
+   */
+  synchronized long[] quantiles(double[] quantiles) {
+    rotate(Math.floorDiv(clock.getAsLong(), SLICE_NANOS));
+    interval = recorder.getIntervalHistogram(interval);
+    slices[(int) Math.floorMod(slice, (long) SLICES)].add(interval);
+    window.reset();
+    for (AbstractHistogram histogram : slices) {
+      window.add(histogram);
+    }
+    long[] values = new long[quantiles.length];
+    for (int i = 0; i < quantiles.length; i++) {
+      values[i] = window.getValueAtPercentile(quantiles[i] * 100);
+    }
+    return values;
+  }
+
+  /**
+   * Clear the slices that fell out of the window since the previous scrape.
+   */
+  private void rotate(long current) {
+    for (long i = Math.max(slice + 1, current - SLICES + 1); i <= current; i++) {
+      slices[(int) Math.floorMod(i, (long) SLICES)].reset();
+    }
+    slice = current;
+  }
+}
@@ -0,0 +1,112 @@
+package io.vertx.stackoverflow.user.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry of the metrics of the service, exported in the Prometheus text format.
+ * <p>
+ * Timers are meant to be looked up once and kept in a field; recording never goes through the registry. Gauges and
+ * counters are read from their supplier on scrape.
+ */
+public class MetricsRegistry {
+
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+  private final Map<String, LatencyTimer> timers = new ConcurrentSkipListMap<>();
+  private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+  private final Map<String, String> help = new ConcurrentHashMap<>();
+
+  /**
+   * @param name   metric name, the latency summary is exported in seconds as {@code <name>_seconds}
+   * @param labels      Prometheus labels of the timer, e.g. {@code route="retrieve_user"}
+   * @param description what is timed, e.g. {@code http requests}
+   */
+  public LatencyTimer timer(String name, String labels, String description) {
+    help.putIfAbsent(name, description);
+    return timers.computeIfAbsent(name + "{" + labels + "}", key -> new LatencyTimer(name, labels));
+  }
+
+  public void gauge(String name, String labels, String description, DoubleSupplier supplier) {
+    register(name, labels, description, "gauge", supplier);
+  }
+
+  public void counter(String name, String labels, String description, DoubleSupplier supplier) {
+    register(name, labels, description, "counter", supplier);
+  }
+
+  private void register(String name, String labels, String description, String type, DoubleSupplier supplier) {
+    help.putIfAbsent(name, description);
+    metrics.put(name + "{" + labels + "}", new Metric(name, labels, type, supplier));
+  }
+
+  /**
+   * @return all the metrics in the Prometheus text exposition format
+   */
+  public String scrape() {
+    StringBuilder out = new StringBuilder(4096);
+    String previous = null;
+    for (LatencyTimer timer : timers.values()) {
+      String name = timer.name() + "_seconds";
+      if (!name.equals(previous)) {
+        header(out, name, "Latency of " + help.get(timer.name()) + ", in seconds", "summary");
+        previous = name;
+      }
+      long[] values = timer.quantiles(QUANTILES);
+      for (int i = 0; i < QUANTILES.length; i++) {
+        out.append(name).append('{').append(timer.labels()).append(",quantile=\"").append(QUANTILES[i]).append("\"} ")
+          .append(seconds(values[i])).append('\n');
+      }
+      out.append(name).append("_count{").append(timer.labels()).append("} ").append(timer.count()).append('\n');
+      out.append(name).append("_sum{").append(timer.labels()).append("} ")
+        .append(timer.sumNanos() / 1_000_000_000.0).append('\n');
+    }
+    previous = null;
+    for (LatencyTimer timer : timers.values()) {
+      String name = timer.name() + "_in_flight";
+      if (!name.equals(previous)) {
+        header(out, name, "In flight " + help.get(timer.name()), "gauge");
+        previous = name;
+      }
+      out.append(name).append('{').append(timer.labels()).append("} ").append(timer.inFlight()).append('\n');
+    }
+    previous = null;
+    for (Metric metric : metrics.values()) {
+      if (!metric.name.equals(previous)) {
+        header(out, metric.name, help.get(metric.name), metric.type);
+        previous = metric.name;
+      }
+      out.append(metric.name);
+      if (!metric.labels.isEmpty()) {
+        out.append('{').append(metric.labels).append('}');
+      }
+      out.append(' ').append(metric.supplier.getAsDouble()).append('\n');
+    }
+    return out.toString();
+  }
+
+  private static void header(StringBuilder out, String name, String description, String type) {
+    out.append("# HELP ").append(name).append(' ').append(description).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static double seconds(double micros) {
+    return micros / 1_000_000;
+  }
+
+  private static final class Metric {
+    private final String name;
+    private final String labels;
+    private final String type;
+    private final DoubleSupplier supplier;
+
+    private Metric(String name, String labels, String type, DoubleSupplier supplier) {
+      this.name = name;
+      this.labels = labels;
+      this.type = type;
+      this.supplier = supplier;
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package io.vertx.stackoverflow.user;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+/**
+ * Timing loop of the benchmarks run from their {@code main} method, in place of JMH the build doesn't have: it warms
+ * an operation up, then prints its mean time and allocated bytes per call on the calling thread.
+ */
+public final class Microbenchmark {
+
+  private static final int ROUNDS = 5;
+
+  private static final com.sun.management.ThreadMXBean THREADS =
+    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  // the results escape through it, so the JIT can neither drop the calls nor their allocations
+  private static Object sink;
+
+  private Microbenchmark() {
+  }
+
+  public static void run(String name, int calls, Supplier<?> operation) {
+    for (int round = 0; round < ROUNDS; round++) {
+      loop(calls, operation);
+    }
+    long threadId = Thread.currentThread().getId();
+    long allocated = THREADS.getThreadAllocatedBytes(threadId);
+    long start = System.nanoTime();
+    for (int round = 0; round < ROUNDS; round++) {
+      loop(calls, operation);
+    }
+    double nanos = System.nanoTime() - start;
+    allocated = THREADS.getThreadAllocatedBytes(threadId) - allocated;
+    System.out.printf("%-44s %10.1f ns/op %10.1f B/op%n", name, nanos / calls / ROUNDS,
+      (double) allocated / calls / ROUNDS);
+  }
+
+  private static void loop(int calls, Supplier<?> operation) {
+    for (int i = 0; i < calls; i++) {
+      sink = operation.get();
+    }
+  }
+}
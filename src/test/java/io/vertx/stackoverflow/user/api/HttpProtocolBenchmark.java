@@ -0,0 +1,136 @@
+package io.vertx.stackoverflow.user.api;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+
+/**
+ * Throughput of the http server of {@link UserAPIVerticle#httpServerOptions()} over HTTP/1.1 and over multiplexed
+ * h2c, with the same number of connections and of requests in flight, serving a fixed user.
+ * <p>
+ * Run its {@code main} method with the test classpath.
+ */
+public class HttpProtocolBenchmark {
+
+  private static final int PORT = 8089;
+  private static final int SECONDS = 10;
+  private static final int CONNECTIONS = 4;
+  private static final int IN_FLIGHT = 64;
+
+  private static final Buffer USER = Buffer.buffer(new JsonObject()
+    .put("username", "jdoe")
+    .put("email", "jdoe@example.com")
+    .put("firstName", "John")
+    .put("lastName", "Doe")
+    .put("phone", "+1 555 0100")
+    .encode());
+
+  public static void main(String[] args) throws Exception {
+    // loopback only, no need of the DNS resolver
+    System.setProperty("vertx.disableDnsResolver", "true");
+    Vertx vertx = Vertx.vertx();
+    try {
+      CompletableFuture<String> deployed = new CompletableFuture<>();
+      vertx.deployVerticle(new Server(), new DeploymentOptions().setConfig(new JsonObject()
+        .put("http-server", new JsonObject().put("compression", false))), ar -> {
+          if (ar.succeeded()) {
+            deployed.complete(ar.result());
+          } else {
+            deployed.completeExceptionally(ar.cause());
+          }
+        });
+      deployed.get();
+
+      run(vertx, "HTTP/1.1", new HttpClientOptions()
+        .setMaxPoolSize(CONNECTIONS));
+      run(vertx, "HTTP/1.1 pipelined", new HttpClientOptions()
+        .setMaxPoolSize(CONNECTIONS)
+        .setPipelining(true)
+        .setPipeliningLimit(IN_FLIGHT / CONNECTIONS));
+      run(vertx, "h2c", new HttpClientOptions()
+        .setProtocolVersion(HttpVersion.HTTP_2)
+        .setHttp2ClearTextUpgrade(false)
+        .setHttp2MaxPoolSize(CONNECTIONS)
+        .setHttp2MultiplexingLimit(IN_FLIGHT / CONNECTIONS));
+    } finally {
+      vertx.close();
+    }
+  }
+
+  private static void run(Vertx vertx, String name, HttpClientOptions options) throws Exception {
+    HttpClient client = vertx.createHttpClient(options.setDefaultHost("127.0.0.1").setDefaultPort(PORT));
+    // the first seconds warm up
+    load(vertx, client, 2);
+    Histogram latency = load(vertx, client, SECONDS);
+    System.out.printf("%-20s %8.0f req/s, latency ms: p50 %.2f, p99 %.2f%n", name,
+      (double) latency.getTotalCount() / SECONDS, latency.getValueAtPercentile(50) / 1000.0,
+      latency.getValueAtPercentile(99) / 1000.0);
+    client.close();
+  }
+
+  private static Histogram load(Vertx vertx, HttpClient client, int seconds) throws Exception {
+    Recorder recorder = new Recorder(2);
+    AtomicInteger pending = new AtomicInteger(IN_FLIGHT);
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    Runnable[] send = new Runnable[1];
+    send[0] = () -> {
+      long start = System.nanoTime();
+      client.get("/user/jdoe", response -> response.bodyHandler(body -> {
+        long now = System.nanoTime();
+        recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(now - start));
+        if (now < end) {
+          send[0].run();
+        } else if (pending.decrementAndGet() == 0) {
+          done.complete(null);
+        }
+      })).exceptionHandler(done::completeExceptionally).end();
+    };
+    vertx.runOnContext(v -> {
+      for (int i = 0; i < IN_FLIGHT; i++) {
+        send[0].run();
+      }
+    });
+    done.get();
+    return recorder.getIntervalHistogram();
+  }
+
+  /**
+   * Serves a fixed user on the http server of the API, without the service, authentication and metrics around it.
+   */
+  private static final class Server extends UserAPIVerticle {
+
+    private Server() {
+      super(null);
+    }
+
+    @Override
+    public void start(Future<Void> future) {
+      Router router = Router.router(vertx);
+      router.get("/user/:id").handler(context -> context.response()
+        .putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
+        .end(USER));
+      createHttpServer(router, "127.0.0.1", PORT).setHandler(future.completer());
+    }
+
+    @Override
+    public void stop(Future<Void> future) {
+      // nothing was published by start
+      future.complete();
+    }
+  }
+}
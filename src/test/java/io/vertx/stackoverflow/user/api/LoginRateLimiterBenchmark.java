@@ -0,0 +1,81 @@
+package io.vertx.stackoverflow.user.api;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.stackoverflow.user.Microbenchmark;
+
+/**
+ * Times {@link LoginRateLimiter#acquire(String, String)} alone, then under a paced load of 50k logins/sec spread over
+ * as many threads as event loops, a credential stuffing mix of many usernames from fewer addresses.
+ * <p>
+ * Run its {@code main} method with the test classpath.
+ */
+public class LoginRateLimiterBenchmark {
+
+  private static final int RATE = 50000;
+  private static final int SECONDS = 10;
+  private static final int KEYS = 100000;
+
+  public static void main(String[] args) throws InterruptedException {
+    String[] usernames = new String[KEYS];
+    String[] addresses = new String[KEYS / 100];
+    for (int i = 0; i < usernames.length; i++) {
+      usernames[i] = "user" + i;
+    }
+    for (int i = 0; i < addresses.length; i++) {
+      addresses[i] = "10.0." + (i >> 8) + "." + (i & 0xff);
+    }
+
+    LoginRateLimiter generous = new LoginRateLimiter(new JsonObject()
+      .put("user-burst", Integer.MAX_VALUE).put("ip-burst", Integer.MAX_VALUE));
+    AtomicInteger next = new AtomicInteger();
+    Microbenchmark.run("acquire, allowed", 1000000, () -> {
+      int i = next.incrementAndGet() & 0xffff;
+      return generous.acquire(usernames[i], addresses[i % addresses.length]);
+    });
+    LoginRateLimiter strict = new LoginRateLimiter(new JsonObject());
+    Microbenchmark.run("acquire, rejected", 1000000, () -> strict.acquire("jdoe", "10.0.0.1"));
+
+    int threads = 2 * Runtime.getRuntime().availableProcessors();
+    LoginRateLimiter limiter = new LoginRateLimiter(new JsonObject());
+    Recorder recorder = new Recorder(3);
+    AtomicInteger rejected = new AtomicInteger();
+    long interval = TimeUnit.SECONDS.toNanos(1) * threads / RATE;
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      workers[t] = new Thread(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long start = System.nanoTime();
+        long calls = TimeUnit.SECONDS.toNanos(SECONDS) / interval;
+        for (long call = 0; call < calls; call++) {
+          LockSupport.parkNanos(start + call * interval - System.nanoTime());
+          String username = usernames[random.nextInt(usernames.length)];
+          String address = addresses[random.nextInt(addresses.length)];
+          long before = System.nanoTime();
+          long wait = limiter.acquire(username, address);
+          recorder.recordValue(System.nanoTime() - before);
+          if (wait > 0) {
+            rejected.incrementAndGet();
+          }
+        }
+      });
+      workers[t].start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    Histogram latency = recorder.getIntervalHistogram();
+    System.out.printf("%d logins/sec over %d threads: %d calls, %d rejected, %d keys tracked%n", RATE, threads,
+      latency.getTotalCount(), rejected.get(), limiter.size());
+    System.out.printf("acquire latency ns: p50 %d, p99 %d, p99.9 %d, max %d%n", latency.getValueAtPercentile(50),
+      latency.getValueAtPercentile(99), latency.getValueAtPercentile(99.9), latency.getMaxValue());
+  }
+}
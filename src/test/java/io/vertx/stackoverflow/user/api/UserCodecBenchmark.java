@@ -0,0 +1,48 @@
+package io.vertx.stackoverflow.user.api;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.stackoverflow.user.Microbenchmark;
+import io.vertx.stackoverflow.user.User;
+
+/**
+ * Compares the response encoding and request decoding of {@link UserAPIVerticle} with what it did before: pretty
+ * printed bodies, fixed bodies encoded on each response, and request users decoded through a {@link JsonObject}.
+ * <p>
+ * Run its {@code main} method with the test classpath.
+ */
+public class UserCodecBenchmark {
+
+  private static final int CALLS = 200000;
+
+  private static final Buffer NOT_FOUND = Buffer.buffer(new JsonObject().put("message", "not_found").encode());
+
+  public static void main(String[] args) {
+    JsonObject user = new JsonObject()
+      .put("username", "jdoe")
+      .put("email", "jdoe@example.com")
+      .put("firstName", "John")
+      .put("lastName", "Doe")
+      .put("phone", "+1 555 0100")
+      .put("version", 3L);
+    JsonArray users = new JsonArray();
+    for (int i = 0; i < 20; i++) {
+      users.add(user.copy().put("username", "user" + i));
+    }
+    JsonObject page = new JsonObject().put("users", users).put("next", "user19");
+    Buffer request = Buffer.buffer(user.copy().put("password", "secret").encode());
+
+    System.out.printf("page of 20 users: %d bytes pretty, %d bytes compact%n",
+      page.encodePrettily().length(), page.encode().length());
+    Microbenchmark.run("page of 20 users, encodePrettily", CALLS / 10,
+      () -> Buffer.buffer(page.encodePrettily()).getByteBuf());
+    Microbenchmark.run("page of 20 users, encode", CALLS / 10,
+      () -> Buffer.buffer(page.encode()).getByteBuf());
+    Microbenchmark.run("not_found, encodePrettily", CALLS,
+      () -> Buffer.buffer(new JsonObject().put("message", "not_found").encodePrettily()).getByteBuf());
+    Microbenchmark.run("not_found, constant Buffer", CALLS, NOT_FOUND::getByteBuf);
+    Microbenchmark.run("request user, new User(JsonObject)", CALLS, () -> new User(new JsonObject(request.toString())));
+    Microbenchmark.run("request user, UserJsonDecoder", CALLS, () -> UserJsonDecoder.decode(request));
+  }
+}
@@ -0,0 +1,217 @@
+package io.vertx.stackoverflow.user.events;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.stackoverflow.user.metrics.MetricsRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UserEventPublisherTest {
+
+  private final Vertx vertx = Vertx.vertx();
+  private final Broker broker = new Broker();
+
+  @After
+  public void close() {
+    vertx.close();
+  }
+
+  @Test
+  public void publishesFullBatchesAtOnceAndTheRestAfterTheBatchDelay() throws Exception {
+    UserEventPublisher publisher = publisher(new JsonObject().put("batch-size", 10).put("batch-delay", 200L));
+    publish(publisher, 0, 25);
+
+    await(() -> broker.confirmed().size() == 20);
+    assertEquals(5, publisher.outboxSize());
+    await(() -> broker.confirmed().size() == 25);
+    assertEquals(ids(0, 25), broker.confirmed());
+    assertEquals(1, broker.connections.get());
+  }
+
+  @Test
+  public void waitsForTheRetryDelayWhateverComesInMeanwhile() throws Exception {
+    broker.down = true;
+    UserEventPublisher publisher = publisher(new JsonObject().put("batch-size", 2).put("retry-delay", 1000L));
+    publish(publisher, 0, 2);
+    await(() -> broker.connections.get() == 1);
+
+    publish(publisher, 2, 20);
+    Thread.sleep(300);
+    assertEquals(1, broker.connections.get());
+
+    broker.down = false;
+    await(() -> broker.confirmed().size() == 20);
+    assertEquals(ids(0, 20), broker.confirmed());
+    assertEquals(2, broker.connections.get());
+  }
+
+  @Test
+  public void dropsTheOldestEventsOfTheFullOutbox() throws Exception {
+    broker.down = true;
+    UserEventPublisher publisher = publisher(new JsonObject().put("outbox-size", 5).put("retry-delay", 300L));
+    publish(publisher, 0, 10);
+    await(() -> broker.connections.get() == 1);
+
+    broker.down = false;
+    await(() -> broker.confirmed().size() == 5);
+    assertEquals(ids(5, 10), broker.confirmed());
+  }
+
+  @Test
+  public void dropsTheNewEventsOfTheFullOutbox() throws Exception {
+    broker.down = true;
+    UserEventPublisher publisher = publisher(new JsonObject().put("outbox-size", 5).put("retry-delay", 300L)
+      .put("spill-policy", "drop-newest"));
+    publish(publisher, 0, 10);
+    await(() -> broker.connections.get() == 1);
+
+    broker.down = false;
+    await(() -> broker.confirmed().size() == 5);
+    assertEquals(ids(0, 5), broker.confirmed());
+  }
+
+  @Test
+  public void requeuesAFailedBatchInFrontOfTheNewerEvents() throws Exception {
+    broker.hold = new CountDownLatch(1);
+    UserEventPublisher publisher = publisher(new JsonObject().put("batch-size", 3).put("retry-delay", 300L));
+    publish(publisher, 0, 3);
+    await(() -> broker.unconfirmed() == 3);
+    publish(publisher, 3, 5);
+
+    broker.fail = true;
+    broker.hold.countDown();
+    Thread.sleep(100);
+    broker.fail = false;
+    await(() -> broker.confirmed().size() == 5);
+    assertEquals(ids(0, 5), broker.confirmed());
+  }
+
+  @Test
+  public void dropsTheFailedBatchWhenTheNewerEventsFillTheOutbox() throws Exception {
+    broker.hold = new CountDownLatch(1);
+    UserEventPublisher publisher = publisher(new JsonObject().put("batch-size", 3).put("outbox-size", 4)
+      .put("retry-delay", 300L));
+    publish(publisher, 0, 3);
+    await(() -> broker.unconfirmed() == 3);
+    publish(publisher, 3, 6);
+
+    broker.fail = true;
+    broker.hold.countDown();
+    Thread.sleep(100);
+    broker.fail = false;
+    await(() -> broker.confirmed().size() == 4);
+    // the failed batch is older than the events that filled the outbox meanwhile, but one of it still fits
+    assertEquals(ids(2, 6), broker.confirmed());
+  }
+
+  private UserEventPublisher publisher(JsonObject config) {
+    return new UserEventPublisher(vertx, config, new MetricsRegistry(), broker);
+  }
+
+  private static void publish(UserEventPublisher publisher, int from, int to) {
+    for (int i = from; i < to; i++) {
+      publisher.publish(new JsonObject()
+        .put("id", String.valueOf(i))
+        .put("type", "user.created")
+        .put("timestamp", System.currentTimeMillis()));
+    }
+  }
+
+  private static List<String> ids(int from, int to) {
+    List<String> ids = new ArrayList<>();
+    for (int i = from; i < to; i++) {
+      ids.add(String.valueOf(i));
+    }
+    return ids;
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.getAsBoolean()) {
+      assertTrue("timed out", System.nanoTime() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  /**
+   * Local stand-in of a RabbitMQ broker: its channels confirm what they published unless it is down or failing.
+   */
+  private static final class Broker extends ConnectionFactory {
+    private final AtomicInteger connections = new AtomicInteger();
+    private final List<String> confirmed = new ArrayList<>();
+    private final List<String> published = new ArrayList<>();
+    private volatile boolean down;
+    private volatile boolean fail;
+    private volatile CountDownLatch hold = new CountDownLatch(0);
+
+    private synchronized List<String> confirmed() {
+      return new ArrayList<>(confirmed);
+    }
+
+    private synchronized int unconfirmed() {
+      return published.size();
+    }
+
+    @Override
+    public Connection newConnection(String name) throws IOException {
+      connections.incrementAndGet();
+      if (down) {
+        throw new IOException("Connection refused");
+      }
+      Channel channel = (Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Channel.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "isOpen":
+              return true;
+            case "basicPublish":
+              synchronized (this) {
+                published.add(new JsonObject(new String((byte[]) args[3], "UTF-8")).getString("id"));
+              }
+              return null;
+            case "waitForConfirmsOrDie":
+              hold.await();
+              boolean failing = fail;
+              synchronized (this) {
+                if (!failing) {
+                  confirmed.addAll(published);
+                }
+                published.clear();
+              }
+              if (failing) {
+                throw new IOException("Channel closed");
+              }
+              return null;
+            default:
+              return null;
+          }
+        });
+      return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "isOpen":
+              return true;
+            case "createChannel":
+              return channel;
+            default:
+              return null;
+          }
+        });
+    }
+  }
+}
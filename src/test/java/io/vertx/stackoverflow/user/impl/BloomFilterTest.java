@@ -0,0 +1,55 @@
+package io.vertx.stackoverflow.user.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BloomFilterTest {
+
+  @Test
+  public void neverMissesAKeyPut() {
+    BloomFilter filter = new BloomFilter(10000, 0.01);
+    for (int i = 0; i < 10000; i++) {
+      filter.put("user" + i);
+    }
+    for (int i = 0; i < 10000; i++) {
+      assertTrue(filter.mightContain("user" + i));
+    }
+  }
+
+  @Test
+  public void staysNearItsFalsePositiveRateWhenFull() {
+    BloomFilter filter = new BloomFilter(10000, 0.01);
+    for (int i = 0; i < 10000; i++) {
+      filter.put("user" + i);
+    }
+    int falsePositives = 0;
+    for (int i = 0; i < 100000; i++) {
+      if (filter.mightContain("missing" + i)) {
+        falsePositives++;
+      }
+    }
+
+    assertTrue("false positives " + falsePositives, falsePositives < 1500);
+    assertEquals(0.01, filter.expectedFpp(), 0.005);
+  }
+
+  @Test
+  public void reportsNothingWhenEmpty() {
+    BloomFilter filter = new BloomFilter(1000, 0.01);
+
+    assertFalse(filter.mightContain("jdoe"));
+    assertFalse(filter.mightContain(""));
+    assertEquals(0.0, filter.expectedFpp(), 0.0);
+  }
+
+  @Test
+  public void isSizedForItsInsertionsAndRate() {
+    // about 9.6 bits per key at 1%
+    long bytes = new BloomFilter(1000000, 0.01).sizeInBytes();
+
+    assertTrue("bytes " + bytes, bytes > 1150000 && bytes < 1250000);
+  }
+}
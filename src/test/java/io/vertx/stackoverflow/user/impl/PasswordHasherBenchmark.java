@@ -0,0 +1,69 @@
+package io.vertx.stackoverflow.user.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Login throughput of {@link PasswordHasher} at each cost setting: verifications per second of a correct password,
+ * the pool kept busy with as many pending ones as it queues.
+ * <p>
+ * Run its {@code main} method with the test classpath, optionally with the iteration counts to compare.
+ */
+public class PasswordHasherBenchmark {
+
+  private static final int SECONDS = 10;
+  private static final int QUEUE_SIZE = 100;
+
+  public static void main(String[] args) throws Exception {
+    String[] costs = args.length > 0 ? args : new String[] {"1000", "10000", "50000", "100000"};
+    Vertx vertx = Vertx.vertx();
+    try {
+      for (String cost : costs) {
+        run(vertx, Integer.parseInt(cost));
+      }
+    } finally {
+      vertx.close();
+    }
+  }
+
+  private static void run(Vertx vertx, int iterations) throws Exception {
+    int poolSize = Runtime.getRuntime().availableProcessors();
+    PasswordHasher hasher = new PasswordHasher(vertx, new JsonObject()
+      .put("iterations", iterations)
+      .put("pool-size", poolSize)
+      .put("queue-size", QUEUE_SIZE));
+    CompletableFuture<String> hashed = new CompletableFuture<>();
+    hasher.hash("secret", ar -> hashed.complete(ar.result()));
+    String stored = hashed.get();
+
+    // the first second warms up
+    measure(hasher, stored, 1);
+    int verified = measure(hasher, stored, SECONDS);
+    System.out.printf("%7d iterations: %8.1f logins/sec on %d threads%n", iterations, (double) verified / SECONDS,
+      poolSize);
+    hasher.close();
+  }
+
+  private static int measure(PasswordHasher hasher, String stored, int seconds) throws InterruptedException {
+    Semaphore pending = new Semaphore(QUEUE_SIZE);
+    AtomicInteger verified = new AtomicInteger();
+    long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    while (System.nanoTime() < end) {
+      if (pending.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+        hasher.verify("secret", stored, ar -> {
+          if (ar.succeeded() && ar.result()) {
+            verified.incrementAndGet();
+          }
+          pending.release();
+        });
+      }
+    }
+    pending.acquire(QUEUE_SIZE);
+    return verified.get();
+  }
+}
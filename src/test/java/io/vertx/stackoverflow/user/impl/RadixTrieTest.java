@@ -0,0 +1,161 @@
+package io.vertx.stackoverflow.user.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RadixTrieTest {
+
+  @Test
+  public void collectsTheValuesOfTheTermsStartingWithThePrefix() {
+    RadixTrie trie = new RadixTrie();
+    trie.put("john", "jdoe");
+    trie.put("johanna", "jsmith");
+    trie.put("jo", "jo42");
+    trie.put("mary", "mjane");
+
+    assertEquals(Arrays.asList("jo42", "jsmith", "jdoe"), collect(trie, "jo", 10));
+    assertEquals(Arrays.asList("jsmith", "jdoe"), collect(trie, "joh", 10));
+    assertEquals(Arrays.asList("jdoe"), collect(trie, "john", 10));
+    assertEquals(Arrays.asList(), collect(trie, "johnny", 10));
+    assertEquals(Arrays.asList(), collect(trie, "x", 10));
+    assertEquals(4, collect(trie, "", 10).size());
+  }
+
+  @Test
+  public void collectsTheExactTermBeforeTheLongerOnes() {
+    RadixTrie trie = new RadixTrie();
+    trie.put("annabel", "a1");
+    trie.put("ann", "a2");
+    trie.put("anna", "a3");
+
+    assertEquals(Arrays.asList("a2", "a3", "a1"), collect(trie, "an", 10));
+  }
+
+  @Test
+  public void stopsCollectingAtTheLimit() {
+    RadixTrie trie = new RadixTrie();
+    for (int i = 0; i < 100; i++) {
+      trie.put("john", "user" + i);
+    }
+    trie.put("johnson", "other");
+
+    assertEquals(10, collect(trie, "jo", 10).size());
+    assertEquals(101, collect(trie, "jo", 1000).size());
+  }
+
+  @Test
+  public void collectsAUserOnceWhateverTheTermsItMatches() {
+    RadixTrie trie = new RadixTrie();
+    trie.put("john", "john");
+    trie.put("johnson", "john");
+
+    assertEquals(Arrays.asList("john"), collect(trie, "john", 10));
+  }
+
+  @Test
+  public void splitsEdgesAndMergesThemBackOnRemove() {
+    RadixTrie trie = new RadixTrie();
+    trie.put("john", "jdoe");
+    long single = trie.nodes();
+    trie.put("joan", "jarc");
+    assertTrue(trie.nodes() > single);
+    assertEquals(Arrays.asList("jarc", "jdoe"), collect(trie, "jo", 10));
+
+    trie.remove("joan", "jarc");
+    assertEquals(single, trie.nodes());
+    assertEquals(Arrays.asList("jdoe"), collect(trie, "jo", 10));
+    assertEquals(Arrays.asList("jdoe"), collect(trie, "john", 10));
+
+    trie.remove("john", "jdoe");
+    assertEquals(1, trie.nodes());
+    assertEquals(Arrays.asList(), collect(trie, "", 10));
+  }
+
+  @Test
+  public void ignoresTheRemovalOfMissingValues() {
+    RadixTrie trie = new RadixTrie();
+    trie.put("john", "jdoe");
+    long nodes = trie.nodes();
+
+    trie.remove("john", "other");
+    trie.remove("jo", "jdoe");
+    trie.remove("johnny", "jdoe");
+
+    assertEquals(nodes, trie.nodes());
+    assertEquals(Arrays.asList("jdoe"), collect(trie, "john", 10));
+  }
+
+  @Test
+  public void keepsServingTheTrieSeenBeforeAWrite() {
+    RadixTrie trie = new RadixTrie();
+    trie.put("john", "jdoe");
+    Set<String> values = new LinkedHashSet<>();
+    trie.collect("jo", 10, values);
+    trie.remove("john", "jdoe");
+    trie.put("joan", "jarc");
+
+    assertEquals(new HashSet<>(Arrays.asList("jdoe")), values);
+    assertEquals(Arrays.asList("jarc"), collect(trie, "jo", 10));
+  }
+
+  @Test
+  public void matchesASortedMapOfRandomWrites() {
+    Random random = new Random(42);
+    RadixTrie trie = new RadixTrie();
+    TreeMap<String, Set<String>> expected = new TreeMap<>();
+    for (int i = 0; i < 20000; i++) {
+      String term = randomWord(random, 1 + random.nextInt(6));
+      String value = "u" + random.nextInt(50);
+      if (random.nextInt(3) == 0) {
+        trie.remove(term, value);
+        Set<String> values = expected.get(term);
+        if (values != null && values.remove(value) && values.isEmpty()) {
+          expected.remove(term);
+        }
+      } else {
+        trie.put(term, value);
+        expected.computeIfAbsent(term, k -> new TreeSet<>()).add(value);
+      }
+    }
+
+    for (int i = 0; i < 200; i++) {
+      String prefix = randomWord(random, random.nextInt(4));
+      Set<String> values = new HashSet<>();
+      expected.subMap(prefix, prefix + Character.MAX_VALUE).values().forEach(values::addAll);
+      assertEquals("prefix " + prefix, values, new HashSet<>(collect(trie, prefix, Integer.MAX_VALUE)));
+    }
+
+    for (String term : new ArrayList<>(expected.keySet())) {
+      for (String value : expected.get(term)) {
+        trie.remove(term, value);
+      }
+    }
+    assertEquals(1, trie.nodes());
+  }
+
+  private static List<String> collect(RadixTrie trie, String prefix, int limit) {
+    Set<String> values = new LinkedHashSet<>();
+    trie.collect(prefix, limit, values);
+    return new ArrayList<>(values);
+  }
+
+  private static String randomWord(Random random, int length) {
+    StringBuilder word = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      word.append((char) ('a' + random.nextInt(3)));
+    }
+    return word.toString();
+  }
+}
@@ -0,0 +1,124 @@
+package io.vertx.stackoverflow.user.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class UserSuggestIndexTest {
+
+  private final UserSuggestIndex index = new UserSuggestIndex(new JsonObject());
+
+  @Test
+  public void suggestsByUsernameAndNamesIgnoringCase() {
+    index.put("jdoe", "John", "Doe");
+    index.put("asmith", "Anna", "Smith");
+
+    assertEquals(Arrays.asList("jdoe"), usernames("JO"));
+    assertEquals(Arrays.asList("jdoe"), usernames("do"));
+    assertEquals(Arrays.asList("asmith"), usernames("smi"));
+    assertEquals(new JsonObject().put("username", "jdoe").put("firstName", "John").put("lastName", "Doe"),
+      index.suggest("john", 10).getJsonObject(0));
+  }
+
+  @Test
+  public void reindexesAUserWithItsNewNames() {
+    index.put("jdoe", "John", "Doe");
+    index.put("jdoe", "Jane", "Doe");
+    index.patch("jdoe", null, "Roe");
+
+    assertEquals(Arrays.asList(), usernames("john"));
+    assertEquals(Arrays.asList(), usernames("doe"));
+    assertEquals(Arrays.asList("jdoe"), usernames("jane"));
+    assertEquals(Arrays.asList("jdoe"), usernames("roe"));
+
+    index.remove("jdoe");
+    assertEquals(Arrays.asList(), usernames("j"));
+    assertEquals(0, index.size());
+  }
+
+  @Test
+  public void leavesOutTheUsersBeyondTheMaximum() {
+    UserSuggestIndex small = new UserSuggestIndex(new JsonObject().put("max-users", 2));
+    small.put("a1", null, null);
+    small.put("a2", null, null);
+    small.put("a3", null, null);
+    small.put("a1", "Al", null);
+
+    assertEquals(2, small.size());
+    assertEquals(1, small.suggest("al", 10).size());
+  }
+
+  @Test
+  public void fillsTheFirstLoadInPlace() {
+    index.beginLoad();
+    index.load(users("jdoe", "asmith"));
+
+    assertEquals(Arrays.asList("jdoe"), usernames("jd"));
+
+    index.load(users("bjones"));
+    index.endLoad();
+    assertEquals(3, index.size());
+  }
+
+  @Test
+  public void keepsServingTheCurrentIndexWhileReloading() {
+    index.beginLoad();
+    index.load(users("jdoe", "asmith"));
+    index.endLoad();
+
+    index.beginLoad();
+    index.load(users("jdoe"));
+    assertEquals(Arrays.asList("asmith"), usernames("as"));
+
+    index.endLoad();
+    // gone from the source
+    assertEquals(Arrays.asList(), usernames("as"));
+    assertEquals(Arrays.asList("jdoe"), usernames("jd"));
+  }
+
+  @Test
+  public void keepsTheWritesMadeWhileReloading() {
+    index.beginLoad();
+    index.load(users("jdoe", "asmith"));
+    index.endLoad();
+
+    index.beginLoad();
+    index.put("bjones", "Bob", "Jones");
+    index.put("jdoe", "Jack", "Doe");
+    index.remove("asmith");
+    // loaded before the writes, so older than them
+    index.load(new JsonArray()
+      .add(new JsonObject().put("username", "jdoe").put("firstName", "John"))
+      .add(new JsonObject().put("username", "asmith")));
+    index.endLoad();
+
+    assertEquals(Arrays.asList("bjones"), usernames("bob"));
+    assertEquals(Arrays.asList("jdoe"), usernames("jack"));
+    assertEquals(Arrays.asList(), usernames("john"));
+    assertEquals(Arrays.asList(), usernames("asmith"));
+    assertEquals(2, index.size());
+  }
+
+  private List<String> usernames(String prefix) {
+    List<String> usernames = new ArrayList<>();
+    JsonArray users = index.suggest(prefix, 10);
+    for (int i = 0; i < users.size(); i++) {
+      usernames.add(users.getJsonObject(i).getString("username"));
+    }
+    return usernames;
+  }
+
+  private static JsonArray users(String... usernames) {
+    JsonArray users = new JsonArray();
+    for (String username : usernames) {
+      users.add(new JsonObject().put("username", username));
+    }
+    return users;
+  }
+}
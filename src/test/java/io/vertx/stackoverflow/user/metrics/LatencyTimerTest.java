@@ -0,0 +1,62 @@
+package io.vertx.stackoverflow.user.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyTimerTest {
+
+  private static final double[] MEDIAN = {0.5};
+
+  private final AtomicLong now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+  private final LatencyTimer timer = new LatencyTimer("test", "", now::get);
+
+  @Test
+  public void computesTheQuantilesOfTheLastMinute() {
+    record(1000, 400);
+    assertEquals(1000, timer.quantiles(MEDIAN)[0], 10);
+
+    // slower from then on
+    advance(30);
+    record(5000, 100);
+    assertEquals(1000, timer.quantiles(MEDIAN)[0], 10);
+
+    advance(35);
+    assertEquals(5000, timer.quantiles(MEDIAN)[0], 50);
+  }
+
+  @Test
+  public void forgetsTheValuesOlderThanAMinute() {
+    record(1000, 100);
+    timer.quantiles(MEDIAN);
+
+    advance(61);
+    assertEquals(0, timer.quantiles(MEDIAN)[0]);
+    record(3000, 1);
+    assertEquals(3000, timer.quantiles(MEDIAN)[0], 30);
+  }
+
+  @Test
+  public void keepsTheCountAndSumSinceTheStart() {
+    record(1000, 100);
+    timer.quantiles(MEDIAN);
+    advance(3600);
+    record(2000, 50);
+
+    assertEquals(150, timer.count());
+    assertEquals(TimeUnit.MICROSECONDS.toNanos(200000), timer.sumNanos());
+  }
+
+  private void record(long micros, int times) {
+    for (int i = 0; i < times; i++) {
+      timer.record(TimeUnit.MICROSECONDS.toNanos(micros));
+    }
+  }
+
+  private void advance(long seconds) {
+    now.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+  }
+}